@@ -0,0 +1,35 @@
+package benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH基准测试入口，结果以JSON写入benchmark/results/jmh-时间.json，用于不同版本之间对比
+ *
+ * benchmark模块依赖SpringUpload模块，另需将以下jar放入benchmark/lib（不随项目提交）：
+ * jmh-core-1.21、jmh-generator-annprocess-1.21、jopt-simple-4.6、commons-math3-3.2、h2-1.4.197，
+ * 以及主项目运行所需的hibernate-core-4.x。编译时需开启注解处理（JMH据此生成测试代码）。
+ *
+ * 运行：java benchmark.BenchmarkRunner [测试类正则]，如 BenchmarkRunner MergeBenchmark
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		String include = args.length > 0 ? args[0] : "benchmark\\..*Benchmark";
+		String result = "benchmark/results/jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+		new java.io.File("benchmark/results").mkdirs();
+		Options options = new OptionsBuilder()
+				.include(include)
+				.forks(1)
+				.resultFormat(ResultFormatType.JSON)
+				.result(result)
+				.build();
+		new Runner(options).run();
+		System.out.println("结果已写入：" + result);
+	}
+}
@@ -0,0 +1,101 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.PositionalChunkWriter;
+
+/**
+ * 分片落盘：DiskFileItem（原实现）、流式复制、池化缓冲区写分片文件、按偏移量写入预分配文件
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChunkWriteBenchmark {
+
+	private static final int CHUNKS = 64;// 直接写入模式下预分配的分片数
+
+	@Param({ "65536", "2097152" })
+	public int chunkSize;
+
+	private byte[] data;
+	private File dir;
+	private File target;
+	private File partial;
+	private DiskFileItemFactory factory;
+	private ByteBuffer buffer;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new byte[chunkSize];
+		new Random(1).nextBytes(data);
+		dir = Files.createTempDirectory("chunk-write").toFile();
+		target = new File(dir, "1_test.bin");
+		partial = PositionalChunkWriter.partialFile(dir, "test.bin");
+		factory = new DiskFileItemFactory(10240, dir);
+		buffer = ByteBuffer.allocateDirect(128 * 1024);
+		random = new Random(2);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * 原实现：commons-fileupload先写临时文件，再FileItem.write到目标位置
+	 */
+	@Benchmark
+	public void fileItemWrite() throws Exception {
+		FileItem item = factory.createItem("file", "application/octet-stream", false, "test.bin");
+		try (OutputStream out = item.getOutputStream()) {
+			out.write(data);
+		}
+		target.delete();
+		item.write(target);
+		item.delete();
+	}
+
+	@Benchmark
+	public long streamingCopy() throws IOException {
+		return Files.copy(new ByteArrayInputStream(data), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Benchmark
+	public long pooledBufferWrite() throws IOException {
+		return PositionalChunkWriter.writeFile(target, new ByteArrayInputStream(data), buffer);
+	}
+
+	@Benchmark
+	public long positionalWrite() throws IOException {
+		long offset = (long) random.nextInt(CHUNKS) * chunkSize;
+		return PositionalChunkWriter.write(partial, new ByteArrayInputStream(data), offset, (long) CHUNKS * chunkSize,
+				buffer);
+	}
+}
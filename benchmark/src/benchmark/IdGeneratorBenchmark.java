@@ -0,0 +1,35 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.IDGenerator;
+
+/**
+ * IDGenerator.UUIDgenerate：单线程与8线程竞争
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IdGeneratorBenchmark {
+
+	@Benchmark
+	@Threads(1)
+	public String uncontended() {
+		return IDGenerator.UUIDgenerate();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String contended() {
+		return IDGenerator.UUIDgenerate();
+	}
+}
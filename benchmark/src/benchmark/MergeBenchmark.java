@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.ChunkMerger;
+import utils.DigestUtil;
+import utils.MergeStrategyI;
+
+/**
+ * 合并N个分片：各合并策略、不同分片数和分片大小，以及合并时同时计算MD5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MergeBenchmark {
+
+	@Param({ "stream", "transferTo", "mmap" })
+	public String strategy;
+
+	@Param({ "8", "64" })
+	public int chunks;
+
+	@Param({ "262144", "2097152" })
+	public int chunkSize;
+
+	private File dir;
+	private File target;
+	private List<File> parts;
+	private MergeStrategyI merger;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("merge").toFile();
+		target = new File(dir, "merged.bin");
+		parts = new ArrayList<File>();
+		Random random = new Random(1);
+		byte[] data = new byte[chunkSize];
+		for (int i = 1; i <= chunks; i++) {
+			random.nextBytes(data);
+			File part = new File(dir, i + "_merged.bin");
+			try (FileOutputStream out = new FileOutputStream(part)) {
+				// 最后一片不满
+				out.write(data, 0, i == chunks ? chunkSize / 2 : chunkSize);
+			}
+			parts.add(part);
+		}
+		merger = ChunkMerger.strategy(strategy);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public long merge() throws IOException {
+		return merger.merge(target, parts, null, null);
+	}
+
+	@Benchmark
+	public long mergeWithDigest() throws IOException {
+		return merger.merge(target, parts, null, DigestUtil.md5());
+	}
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import model.sys.TfileUploadStatus;
+import service.sys.FileUploadStatusServiceI;
+import utils.ChunkBitmap;
+
+/**
+ * FileUploadStatusServiceImpl读写上传状态，数据库为内存H2（benchmark-h2.xml）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StatusServiceBenchmark {
+
+	private static final int CHUNKS = 512;
+
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	private ClassPathXmlApplicationContext context;
+	private FileUploadStatusServiceI statusService;
+	private String[] objIds;
+	private byte[] bitmap;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = new ClassPathXmlApplicationContext("benchmark-h2.xml");
+		statusService = (FileUploadStatusServiceI) context.getBean("fileUploadStatusServiceImpl");
+		ChunkBitmap b = new ChunkBitmap(CHUNKS);
+		for (int i = 1; i <= CHUNKS / 2; i++) {
+			b.set(i);
+		}
+		bitmap = b.toByteArray();
+		objIds = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			objIds[i] = statusService.add(name(i), 1, CHUNKS, bitmap, -1);
+		}
+		random = new Random(1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private static String name(int i) {
+		return "file-" + i + ".bin";
+	}
+
+	@Benchmark
+	public TfileUploadStatus get() {
+		return statusService.get(name(random.nextInt(rows)));
+	}
+
+	/**
+	 * 按文件名查询后更新，每次一个事务
+	 */
+	@Benchmark
+	public void updateProgress() {
+		statusService.updateProgress(name(random.nextInt(rows)), CHUNKS / 2, bitmap, -1);
+	}
+
+	/**
+	 * 写缓冲后批量写库，每次缓冲50条再写入
+	 */
+	@Benchmark
+	public void bufferAndFlush() {
+		for (int i = 0; i < 50; i++) {
+			statusService.bufferProgress(objIds[random.nextInt(rows)], CHUNKS / 2, bitmap, -1);
+		}
+		statusService.flushProgress();
+	}
+}
@@ -0,0 +1,70 @@
+-- 上传状态表（MySQL），obj_id为上传ID（/initUpload分配，或由文件名生成）
+CREATE TABLE `sys_file_upload_status` (
+  `obj_id` varchar(36) NOT NULL,
+  `file_name` varchar(255) DEFAULT NULL,
+  `chunk` int(11) NOT NULL,
+  `chunks` int(11) NOT NULL,
+  `chunk_bitmap` longblob,
+  `file_size` bigint(20) NOT NULL DEFAULT -1,
+  `chunk_size` bigint(20) NOT NULL DEFAULT -1,
+  `last_activity` bigint(20) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`obj_id`),
+  KEY `idx_file_name` (`file_name`),
+  KEY `idx_last_activity` (`last_activity`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 已有表升级
+-- ALTER TABLE `sys_file_upload_status` ADD COLUMN `chunk_bitmap` longblob;
+-- 已按blob添加的改为longblob（MySQL5InnoDBDialect下@Lob byte[]对应longblob，hbm2ddl校验按此类型）
+-- ALTER TABLE `sys_file_upload_status` MODIFY COLUMN `chunk_bitmap` longblob;
+-- ALTER TABLE `sys_file_upload_status` ADD COLUMN `file_size` bigint(20) NOT NULL DEFAULT -1;
+-- 按文件名查询走唯一索引，添加前先清理重复的file_name
+-- ALTER TABLE `sys_file_upload_status` ADD UNIQUE KEY `uk_file_name` (`file_name`);
+-- 按上传ID查询后同名文件可以同时上传，file_name不再唯一；升级前未完成的上传需重新开始
+-- ALTER TABLE `sys_file_upload_status` DROP KEY `uk_file_name`, ADD KEY `idx_file_name` (`file_name`);
+-- 过期上传清理按最后活动时间（毫秒）查询，已有记录从升级时起计时
+-- ALTER TABLE `sys_file_upload_status` ADD COLUMN `last_activity` bigint(20) NOT NULL DEFAULT 0, ADD KEY `idx_last_activity` (`last_activity`);
+-- UPDATE `sys_file_upload_status` SET `last_activity` = UNIX_TIMESTAMP() * 1000;
+-- 分片大小随上传保存，之后的分片必须一致；已有记录为-1，由下一个分片确定
+-- ALTER TABLE `sys_file_upload_status` ADD COLUMN `chunk_size` bigint(20) NOT NULL DEFAULT -1;
+
+-- 已存储文件内容索引（秒传）
+CREATE TABLE `sys_file_hash` (
+  `obj_id` varchar(36) NOT NULL,
+  `file_hash` varchar(32) NOT NULL,
+  `file_size` bigint(20) NOT NULL,
+  `file_name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`obj_id`),
+  UNIQUE KEY `uk_file_hash` (`file_hash`,`file_size`),
+  KEY `idx_file_name` (`file_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+-- 文件被覆盖时按文件名删除旧内容的登记
+-- ALTER TABLE `sys_file_hash` ADD KEY `idx_file_name` (`file_name`);
+
+-- 分片仓库（按分片MD5和长度存储，ref_count为引用数）
+CREATE TABLE `sys_chunk_store` (
+  `obj_id` varchar(36) NOT NULL,
+  `chunk_hash` varchar(32) NOT NULL,
+  `chunk_size` bigint(20) NOT NULL,
+  `ref_count` int(11) NOT NULL DEFAULT 0,
+  `last_used` bigint(20) NOT NULL,
+  PRIMARY KEY (`obj_id`),
+  UNIQUE KEY `uk_chunk_hash` (`chunk_hash`,`chunk_size`),
+  KEY `idx_ref_count` (`ref_count`,`last_used`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 上传引用的仓库分片，按上传ID区分，file_name只作记录
+CREATE TABLE `sys_file_chunk` (
+  `obj_id` varchar(36) NOT NULL,
+  `upload_id` varchar(36) NOT NULL,
+  `file_name` varchar(255) NOT NULL,
+  `chunk` int(11) NOT NULL,
+  `chunk_hash` varchar(32) NOT NULL,
+  `chunk_size` bigint(20) NOT NULL,
+  PRIMARY KEY (`obj_id`),
+  UNIQUE KEY `uk_upload_chunk` (`upload_id`,`chunk`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+-- 已有表升级：按文件名记录的引用无法对应到上传，先清空，引用数随之归零，无引用的分片按保留时间回收
+-- DELETE FROM `sys_file_chunk`;
+-- UPDATE `sys_chunk_store` SET `ref_count` = 0, `last_used` = UNIX_TIMESTAMP() * 1000;
+-- ALTER TABLE `sys_file_chunk` DROP KEY `uk_file_chunk`, ADD COLUMN `upload_id` varchar(36) NOT NULL AFTER `obj_id`, ADD UNIQUE KEY `uk_upload_chunk` (`upload_id`,`chunk`);
@@ -2,6 +2,7 @@ package dao;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +18,8 @@ public interface BaseDaoI<T> {
 
 	public void saveOrUpdate(T o);
 
+	public void saveAll(Collection<T> os);
+
 	public T get(Class<T> c, Serializable id);
 
 	public T get(String hql);
@@ -60,6 +63,8 @@ public interface BaseDaoI<T> {
 
 	public int executeSql(String sql, Map<String, Object> params);
 
+	public int[] batchUpdate(String sql, List<Object[]> batchArgs);
+
 	public BigInteger countBySql(String sql);
 
 	public BigInteger countBySql(String sql, Map<String, Object> params);
@@ -2,6 +2,7 @@ package dao.impl;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +27,11 @@ public class BaseDaoImpl<T> implements BaseDaoI<T> {
 	@Autowired
 	private JdbcTemplate jdbcTemplate; 
 
+	/**
+	 * 批量保存时每多少条flush一次，与hibernate.jdbc.batch_size一致
+	 */
+	private static final int BATCH_SIZE = 50;
+
 	/**
 	 * 获得当前事物的session
 	 * 
@@ -99,6 +105,27 @@ public class BaseDaoImpl<T> implements BaseDaoI<T> {
 		}
 	}
 
+	/**
+	 * 批量保存，每BATCH_SIZE条flush并清空session，配合hibernate.jdbc.batch_size以JDBC批量方式写入
+	 */
+	@Override
+	public void saveAll(Collection<T> os) {
+		if (os == null || os.isEmpty()) {
+			return;
+		}
+		Session session = this.getCurrentSession();
+		int i = 0;
+		for (T o : os) {
+			session.save(o);
+			if (++i % BATCH_SIZE == 0) {
+				session.flush();
+				session.clear();
+			}
+		}
+		session.flush();
+		session.clear();
+	}
+
 	@Override
 	public List<T> find(String hql) {
 		Query q = this.getCurrentSession().createQuery(hql);
@@ -249,6 +276,17 @@ public class BaseDaoImpl<T> implements BaseDaoI<T> {
 		return q.executeUpdate();
 	}
 
+	/**
+	 * 同一条SQL多组参数，一次JDBC批量执行
+	 */
+	@Override
+	public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+		if (batchArgs == null || batchArgs.isEmpty()) {
+			return new int[0];
+		}
+		return this.jdbcTemplate.batchUpdate(sql, batchArgs);
+	}
+
 	@Override
 	public BigInteger countBySql(String sql) {
 		SQLQuery q = this.getCurrentSession().createSQLQuery(sql);
@@ -0,0 +1,65 @@
+package model.sys;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 分片仓库，按分片MD5和长度存储分片内容，引用数为0的分片由垃圾回收删除
+ */
+@Entity
+@Table(name = "sys_chunk_store", uniqueConstraints = @UniqueConstraint(name = "uk_chunk_hash", columnNames = { "chunk_hash", "chunk_size" }))
+public class TchunkStore implements Serializable{
+	private String objId;
+	private String chunkHash;
+	private long chunkSize;
+	private int refCount;// 引用该分片的上传分片数
+	private long lastUsed;// 最后一次存入或引用的时间（毫秒）
+	
+	@Id
+	@Column(name = "obj_id", unique = true, nullable = false, length = 36)
+	public String getObjId() {
+		return objId;
+	}
+	public void setObjId(String objId) {
+		this.objId = objId;
+	}
+	
+	@Column(name = "chunk_hash", nullable = false, length = 32)
+	public String getChunkHash() {
+		return chunkHash;
+	}
+	public void setChunkHash(String chunkHash) {
+		this.chunkHash = chunkHash;
+	}
+	
+	@Column(name = "chunk_size", nullable = false)
+	public long getChunkSize() {
+		return chunkSize;
+	}
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
+	@Column(name = "ref_count", nullable = false)
+	public int getRefCount() {
+		return refCount;
+	}
+	public void setRefCount(int refCount) {
+		this.refCount = refCount;
+	}
+	
+	@Column(name = "last_used", nullable = false)
+	public long getLastUsed() {
+		return lastUsed;
+	}
+	public void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+	
+	
+}
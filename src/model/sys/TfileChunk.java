@@ -0,0 +1,74 @@
+package model.sys;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 上传由哪些仓库分片组成，每一行是分片仓库的一个引用。按上传ID区分，同名文件同时上传互不影响，文件名只作记录
+ */
+@Entity
+@Table(name = "sys_file_chunk", uniqueConstraints = @UniqueConstraint(name = "uk_upload_chunk", columnNames = { "upload_id", "chunk" }))
+public class TfileChunk implements Serializable{
+	private String objId;
+	private String uploadId;
+	private String fileName;
+	private int chunk;
+	private String chunkHash;
+	private long chunkSize;
+	
+	@Id
+	@Column(name = "obj_id", unique = true, nullable = false, length = 36)
+	public String getObjId() {
+		return objId;
+	}
+	public void setObjId(String objId) {
+		this.objId = objId;
+	}
+	
+	@Column(name = "upload_id", nullable = false, length = 36)
+	public String getUploadId() {
+		return uploadId;
+	}
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+	
+	@Column(name = "file_name", nullable = false)
+	public String getFileName() {
+		return fileName;
+	}
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+	
+	@Column(name = "chunk", nullable = false)
+	public int getChunk() {
+		return chunk;
+	}
+	public void setChunk(int chunk) {
+		this.chunk = chunk;
+	}
+	
+	@Column(name = "chunk_hash", nullable = false, length = 32)
+	public String getChunkHash() {
+		return chunkHash;
+	}
+	public void setChunkHash(String chunkHash) {
+		this.chunkHash = chunkHash;
+	}
+	
+	@Column(name = "chunk_size", nullable = false)
+	public long getChunkSize() {
+		return chunkSize;
+	}
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
+	
+}
@@ -0,0 +1,56 @@
+package model.sys;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 已存储文件的内容索引，按文件MD5和长度查找，用于秒传
+ */
+@Entity
+@Table(name = "sys_file_hash", uniqueConstraints = @UniqueConstraint(name = "uk_file_hash", columnNames = { "file_hash", "file_size" }))
+public class TfileHash implements Serializable{
+	private String objId;
+	private String fileHash;
+	private long fileSize;
+	private String fileName;
+	
+	@Id
+	@Column(name = "obj_id", unique = true, nullable = false, length = 36)
+	public String getObjId() {
+		return objId;
+	}
+	public void setObjId(String objId) {
+		this.objId = objId;
+	}
+	
+	@Column(name = "file_hash", nullable = false, length = 32)
+	public String getFileHash() {
+		return fileHash;
+	}
+	public void setFileHash(String fileHash) {
+		this.fileHash = fileHash;
+	}
+	
+	@Column(name = "file_size", nullable = false)
+	public long getFileSize() {
+		return fileSize;
+	}
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+	
+	@Column(name = "file_name")
+	public String getFileName() {
+		return fileName;
+	}
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+	
+	
+}
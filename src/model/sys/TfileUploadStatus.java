@@ -5,15 +5,23 @@ import java.io.Serializable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Lob;
 import javax.persistence.Table;
 
+/**
+ * 上传状态，主键obj_id即上传ID，同名文件可以同时上传
+ */
 @Entity
 @Table(name = "sys_file_upload_status")
 public class TfileUploadStatus implements Serializable{
-	private String objId;
-	private String fileName;
+	private String objId;// 上传ID
+	private String fileName;// 合并后的文件名
 	private int chunk;
 	private int chunks;
+	private byte[] chunkBitmap;// 已接收分片位图
+	private long fileSize = -1;// 文件总长度，最后一片到达前未知
+	private long chunkSize = -1;// 分片大小，创建上传时确定，之后的分片必须一致；-1为升级前的记录，由下一个分片确定
+	private long lastActivity;// 最后活动时间，过期未完成的上传由UploadReaper清理
 	
 	@Id
 	@Column(name = "obj_id", unique = true, nullable = false, length = 36)
@@ -48,5 +56,38 @@ public class TfileUploadStatus implements Serializable{
 		this.chunks = chunks;
 	}
 	
+	@Lob
+	@Column(name = "chunk_bitmap")
+	public byte[] getChunkBitmap() {
+		return chunkBitmap;
+	}
+	public void setChunkBitmap(byte[] chunkBitmap) {
+		this.chunkBitmap = chunkBitmap;
+	}
+	
+	@Column(name = "file_size")
+	public long getFileSize() {
+		return fileSize;
+	}
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+	
+	@Column(name = "chunk_size")
+	public long getChunkSize() {
+		return chunkSize;
+	}
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
+	@Column(name = "last_activity")
+	public long getLastActivity() {
+		return lastActivity;
+	}
+	public void setLastActivity(long lastActivity) {
+		this.lastActivity = lastActivity;
+	}
+	
 	
 }
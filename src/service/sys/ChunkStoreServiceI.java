@@ -0,0 +1,29 @@
+package service.sys;
+
+import java.util.List;
+
+import model.sys.TchunkStore;
+
+public interface ChunkStoreServiceI {
+	public TchunkStore get(String chunkHash, long chunkSize);
+	
+	/**
+	 * 上传的第chunk片引用仓库分片，替换该位置原有的引用
+	 */
+	public void addReference(String uploadId, String fileName, int chunk, String chunkHash, long chunkSize);
+	
+	/**
+	 * 删除上传第chunk片的引用
+	 */
+	public void deleteReference(String uploadId, int chunk);
+	
+	/**
+	 * 删除上传第fromChunk片及之后的引用
+	 */
+	public void deleteReferences(String uploadId, int fromChunk);
+	
+	/**
+	 * 删除引用数为0且lastUsed早于before的分片记录，返回被删除的记录，由调用方删除分片文件
+	 */
+	public List<TchunkStore> removeUnreferenced(long before);
+}
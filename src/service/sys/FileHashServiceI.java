@@ -0,0 +1,16 @@
+package service.sys;
+
+import model.sys.TfileHash;
+
+public interface FileHashServiceI {
+	public TfileHash get(String fileHash, long fileSize);
+	
+	public void register(String fileHash, long fileSize, String fileName);
+	
+	public void delete(String fileHash, long fileSize);
+	
+	/**
+	 * 文件被未登记内容的上传覆盖，删除该文件名登记的全部内容
+	 */
+	public void deleteByFileName(String fileName);
+}
@@ -1,14 +1,49 @@
 package service.sys;
 
+import java.util.List;
+
 import model.sys.TfileUploadStatus;
 
 public interface FileUploadStatusServiceI {
 	public String add(String fileName, int chunk, int chunks);
 	
+	public String add(String fileName, int chunk, int chunks, byte[] chunkBitmap, long fileSize, long chunkSize);
+	
+	/**
+	 * 以指定的上传ID新增上传状态
+	 */
+	public String add(String objId, String fileName, int chunk, int chunks, byte[] chunkBitmap, long fileSize, long chunkSize);
+	
 	public TfileUploadStatus get(String fileName);
 	
+	/**
+	 * 按上传ID（主键）查询
+	 */
+	public TfileUploadStatus getById(String objId);
+	
 	public void updateChunk(String fileName, int chunk);
 	
+	public void updateProgress(String fileName, int chunk, byte[] chunkBitmap, long fileSize);
+	
+	public void bufferProgress(String objId, int chunk, byte[] chunkBitmap, long fileSize);
+	
+	/**
+	 * 同名文件重新上传：立即写入新的分片数、分片大小和空位图，丢弃尚未写库的旧进度
+	 */
+	public void resetProgress(String objId, int chunks, byte[] chunkBitmap, long chunkSize);
+	
+	public void flushProgress();
+	
+	/**
+	 * 最后活动时间早于before的上传，按(lastActivity, objId)升序从(afterActivity, afterId)之后取rows条
+	 */
+	public List<TfileUploadStatus> findExpired(long before, long afterActivity, String afterId, int rows);
+	
+	/**
+	 * 删除最后活动时间仍早于before的上传状态，返回实际删除的上传ID
+	 */
+	public List<String> removeExpired(List<String> objIds, long before);
+	
 	
 	public int getChunk(String fileName);
 	
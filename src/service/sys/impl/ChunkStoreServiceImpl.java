@@ -0,0 +1,129 @@
+package service.sys.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dao.BaseDaoI;
+import model.sys.TchunkStore;
+import model.sys.TfileChunk;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import service.sys.ChunkStoreServiceI;
+import utils.IDGenerator;
+
+@Service
+public class ChunkStoreServiceImpl implements ChunkStoreServiceI {
+	
+	private static final String GET_BY_HASH_HQL = "from TchunkStore t where t.chunkHash = :chunkHash and t.chunkSize = :chunkSize";
+	
+	private static final String GET_FILE_CHUNK_HQL = "from TfileChunk t where t.uploadId = :uploadId and t.chunk = :chunk";
+	
+	private static final String FIND_FILE_CHUNKS_HQL = "from TfileChunk t where t.uploadId = :uploadId and t.chunk >= :chunk";
+	
+	private static final String FIND_UNREFERENCED_HQL = "from TchunkStore t where t.refCount <= 0 and t.lastUsed < :before";
+	
+	// 引用数的增减直接在数据库中完成，并发引用同一分片时不会丢失计数
+	private static final String INCREMENT_SQL = "insert into sys_chunk_store (obj_id, chunk_hash, chunk_size, ref_count, last_used) values (:objId, :chunkHash, :chunkSize, 1, :now) "
+			+ "on duplicate key update ref_count = ref_count + 1, last_used = :now";
+	
+	private static final String DECREMENT_SQL = "update sys_chunk_store set ref_count = ref_count - 1, last_used = :now where chunk_hash = :chunkHash and chunk_size = :chunkSize and ref_count > 0";
+	
+	private static final String DELETE_UNREFERENCED_SQL = "delete from sys_chunk_store where obj_id = :objId and ref_count <= 0";
+	
+	private static final int GC_BATCH = 1000;// 每次回收的最大分片数
+	
+	@Autowired
+	private BaseDaoI<TchunkStore> storeDao;
+	
+	@Autowired
+	private BaseDaoI<TfileChunk> fileChunkDao;
+
+	@Override
+	public TchunkStore get(String chunkHash, long chunkSize) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("chunkHash", chunkHash);
+		params.put("chunkSize", chunkSize);
+		return storeDao.get(GET_BY_HASH_HQL, params);
+	}
+
+	@Override
+	public void addReference(String uploadId, String fileName, int chunk, String chunkHash, long chunkSize) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("uploadId", uploadId);
+		params.put("chunk", chunk);
+		TfileChunk t = fileChunkDao.get(GET_FILE_CHUNK_HQL, params);
+		if(t == null){
+			t = new TfileChunk();
+			t.setObjId(IDGenerator.UUIDgenerate());
+			t.setUploadId(uploadId);
+			t.setFileName(fileName);
+			t.setChunk(chunk);
+			t.setChunkHash(chunkHash);
+			t.setChunkSize(chunkSize);
+			fileChunkDao.save(t);
+		} else if(t.getChunkHash().equals(chunkHash) && t.getChunkSize() == chunkSize){
+			return;
+		} else {
+			decrement(t.getChunkHash(), t.getChunkSize());
+			t.setChunkHash(chunkHash);
+			t.setChunkSize(chunkSize);
+			fileChunkDao.update(t);
+		}
+		params = new HashMap<String, Object>();
+		params.put("objId", IDGenerator.UUIDgenerate());
+		params.put("chunkHash", chunkHash);
+		params.put("chunkSize", chunkSize);
+		params.put("now", System.currentTimeMillis());
+		storeDao.executeSql(INCREMENT_SQL, params);
+	}
+
+	@Override
+	public void deleteReference(String uploadId, int chunk) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("uploadId", uploadId);
+		params.put("chunk", chunk);
+		TfileChunk t = fileChunkDao.get(GET_FILE_CHUNK_HQL, params);
+		if(t != null){
+			decrement(t.getChunkHash(), t.getChunkSize());
+			fileChunkDao.delete(t);
+		}
+	}
+
+	@Override
+	public void deleteReferences(String uploadId, int fromChunk) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("uploadId", uploadId);
+		params.put("chunk", fromChunk);
+		for(TfileChunk t : fileChunkDao.find(FIND_FILE_CHUNKS_HQL, params)){
+			decrement(t.getChunkHash(), t.getChunkSize());
+			fileChunkDao.delete(t);
+		}
+	}
+
+	@Override
+	public List<TchunkStore> removeUnreferenced(long before) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("before", before);
+		List<TchunkStore> removed = new ArrayList<TchunkStore>();
+		for(TchunkStore t : storeDao.find(FIND_UNREFERENCED_HQL, params, 1, GC_BATCH)){
+			Map<String, Object> p = new HashMap<String, Object>();
+			p.put("objId", t.getObjId());
+			// 查询之后可能又被引用，以删除时的引用数为准
+			if(storeDao.executeSql(DELETE_UNREFERENCED_SQL, p) > 0){
+				removed.add(t);
+			}
+		}
+		return removed;
+	}
+	
+	private void decrement(String chunkHash, long chunkSize) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("chunkHash", chunkHash);
+		params.put("chunkSize", chunkSize);
+		params.put("now", System.currentTimeMillis());
+		storeDao.executeSql(DECREMENT_SQL, params);
+	}
+
+}
@@ -0,0 +1,74 @@
+package service.sys.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import dao.BaseDaoI;
+import model.sys.TfileHash;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import service.sys.FileHashServiceI;
+import utils.IDGenerator;
+
+@Service
+public class FileHashServiceImpl implements FileHashServiceI {
+	
+	private static final String GET_BY_HASH_HQL = "from TfileHash t where t.fileHash = :fileHash and t.fileSize = :fileSize";
+	
+	private static final String DELETE_OTHER_CONTENT_HQL = "delete from TfileHash t where t.fileName = :fileName "
+			+ "and (t.fileHash <> :fileHash or t.fileSize <> :fileSize)";
+	
+	private static final String DELETE_BY_FILE_NAME_HQL = "delete from TfileHash t where t.fileName = :fileName";
+	
+	@Autowired
+	private BaseDaoI<TfileHash> hashDao;
+
+	@Override
+	public TfileHash get(String fileHash, long fileSize) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("fileHash", fileHash);
+		params.put("fileSize", fileSize);
+		return hashDao.get(GET_BY_HASH_HQL, params);
+	}
+
+	/**
+	 * 登记已存储文件的内容，相同内容已登记时指向最新的文件。
+	 * 同名文件此前登记的其他内容已被覆盖，一并删除，否则秒传会按旧的MD5复制出新内容
+	 */
+	@Override
+	public void register(String fileHash, long fileSize, String fileName) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("fileName", fileName);
+		params.put("fileHash", fileHash);
+		params.put("fileSize", fileSize);
+		hashDao.executeHql(DELETE_OTHER_CONTENT_HQL, params);
+		TfileHash t = this.get(fileHash, fileSize);
+		if(t == null){
+			t = new TfileHash();
+			t.setObjId(IDGenerator.UUIDgenerate());
+			t.setFileHash(fileHash);
+			t.setFileSize(fileSize);
+			t.setFileName(fileName);
+			hashDao.save(t);
+		} else if(!fileName.equals(t.getFileName())){
+			t.setFileName(fileName);
+			hashDao.update(t);
+		}
+	}
+
+	@Override
+	public void deleteByFileName(String fileName) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("fileName", fileName);
+		hashDao.executeHql(DELETE_BY_FILE_NAME_HQL, params);
+	}
+
+	@Override
+	public void delete(String fileHash, long fileSize) {
+		TfileHash t = this.get(fileHash, fileSize);
+		if(t != null){
+			hashDao.delete(t);
+		}
+	}
+
+}
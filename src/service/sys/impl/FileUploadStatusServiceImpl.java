@@ -1,35 +1,141 @@
 package service.sys.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import dao.BaseDaoI;
 import model.sys.TfileUploadStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import service.sys.FileUploadStatusServiceI;
+import utils.ChunkBitmap;
+import utils.ConfigUtil;
 import utils.IDGenerator;
 import utils.StringUtils;
+import utils.UploadMetrics;
 
 @Service
 public class FileUploadStatusServiceImpl implements FileUploadStatusServiceI {
 	
+	private static final String GET_BY_FILE_NAME_HQL = "from TfileUploadStatus t where t.fileName = :fileName";
+	
+	private static final String UPDATE_PROGRESS_SQL = "update sys_file_upload_status set chunk=?, chunk_bitmap=?, file_size=?, last_activity=? where obj_id=?";
+	
+	private static final String RESET_PROGRESS_SQL = "update sys_file_upload_status set chunk=0, chunks=:chunks, chunk_bitmap=:chunkBitmap, "
+			+ "file_size=-1, chunk_size=:chunkSize, last_activity=:lastActivity where obj_id=:objId";
+	
+	// 按(last_activity, obj_id)翻页，走idx_last_activity索引，跳过的记录不会被重复查出
+	private static final String FIND_EXPIRED_HQL = "from TfileUploadStatus t where t.lastActivity < :before "
+			+ "and (t.lastActivity > :afterActivity or (t.lastActivity = :afterActivity and t.objId > :afterId)) "
+			+ "order by t.lastActivity, t.objId";
+	
+	private static final String DELETE_EXPIRED_SQL = "delete from sys_file_upload_status where obj_id = :objId and last_activity < :before";
+	
 	@Autowired
 	private BaseDaoI<TfileUploadStatus> statusDao;
+	
+	/**
+	 * 待写库的上传进度，按obj_id合并，只保留最新值
+	 */
+	private final ConcurrentMap<String, Object[]> pendingProgress = new ConcurrentHashMap<String, Object[]>();
+	
+	private ScheduledExecutorService flusher;
+	
+	/**
+	 * 定时将缓冲的上传进度批量写库
+	 */
+	@PostConstruct
+	public void startFlusher() {
+		long interval = ConfigUtil.getLong("upload.progress.flush_interval", 300);
+		flusher = Executors.newSingleThreadScheduledExecutor();
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flushProgress();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	@PreDestroy
+	public void stopFlusher() {
+		flusher.shutdown();
+		flushProgress();
+	}
 
 	@Override
 	public String add(String fileName, int chunk, int chunks) {
+		ChunkBitmap bitmap = new ChunkBitmap(chunks);
+		bitmap.set(chunk);
+		return this.add(fileName, chunk, chunks, bitmap.toByteArray(), -1, -1);
+	}
+
+	@Override
+	public String add(String fileName, int chunk, int chunks, byte[] chunkBitmap, long fileSize, long chunkSize) {
+		return this.add(IDGenerator.UUIDgenerate(), fileName, chunk, chunks, chunkBitmap, fileSize, chunkSize);
+	}
+
+	@Override
+	public String add(String objId, String fileName, int chunk, int chunks, byte[] chunkBitmap, long fileSize, long chunkSize) {
 		TfileUploadStatus t = new TfileUploadStatus();
-		t.setObjId(IDGenerator.UUIDgenerate());
+		t.setObjId(objId);
 		t.setFileName(fileName);
 		t.setChunks(chunks);
 		t.setChunk(chunk);
+		t.setChunkBitmap(chunkBitmap);
+		t.setFileSize(fileSize);
+		t.setChunkSize(chunkSize);
+		t.setLastActivity(System.currentTimeMillis());
 		this.statusDao.save(t);
 		return t.getObjId();
 	}
 
 	@Override
 	public TfileUploadStatus get(String fileName) {
-		String hql = "from TfileUploadStatus t where t.fileName='" + fileName + "'";
-		
-		return statusDao.get(hql);
+		// 命名参数，查询语句固定，可命中Hibernate查询计划缓存和预编译语句缓存
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("fileName", fileName);
+		long start = System.nanoTime();
+		TfileUploadStatus t = statusDao.get(GET_BY_FILE_NAME_HQL, params);
+		UploadMetrics.DB_GET.recordSince(start);
+		return withPending(t);
+	}
+
+	@Override
+	public TfileUploadStatus getById(String objId) {
+		long start = System.nanoTime();
+		TfileUploadStatus t = statusDao.get(TfileUploadStatus.class, objId);
+		UploadMetrics.DB_GET.recordSince(start);
+		return withPending(t);
+	}
+
+	/**
+	 * 叠加尚未写库的进度（只读事务，不会写回）
+	 */
+	private TfileUploadStatus withPending(TfileUploadStatus t) {
+		if(t != null){
+			Object[] pending = pendingProgress.get(t.getObjId());
+			if(pending != null){
+				t.setChunk((Integer) pending[0]);
+				t.setChunkBitmap((byte[]) pending[1]);
+				t.setFileSize((Long) pending[2]);
+				t.setLastActivity((Long) pending[3]);
+			}
+		}
+		return t;
 	}
 
 	@Override
@@ -37,12 +143,93 @@ public class FileUploadStatusServiceImpl implements FileUploadStatusServiceI {
 		TfileUploadStatus t = this.get(fileName);
 		if(t != null){
 			t.setChunk(chunk);
+			t.setLastActivity(System.currentTimeMillis());
 			statusDao.update(t);
 		}
 
 	}
 
+	@Override
+	public void updateProgress(String fileName, int chunk, byte[] chunkBitmap, long fileSize) {
+		TfileUploadStatus t = this.get(fileName);
+		if(t != null){
+			t.setChunk(chunk);
+			t.setChunkBitmap(chunkBitmap);
+			t.setFileSize(fileSize);
+			t.setLastActivity(System.currentTimeMillis());
+			statusDao.update(t);
+		}
+	}
+
+
+
+	/**
+	 * 只写入内存缓冲，不开启事务，由后台线程每隔upload.progress.flush_interval毫秒批量写库
+	 */
+	@Override
+	public void bufferProgress(String objId, int chunk, byte[] chunkBitmap, long fileSize) {
+		pendingProgress.put(objId, new Object[] { chunk, chunkBitmap, fileSize, System.currentTimeMillis(), objId });
+	}
+
+	/**
+	 * 与flushProgress互斥：先移除旧的缓冲进度再写库，之后的批量写入不会把旧位图写回
+	 */
+	@Override
+	public synchronized void resetProgress(String objId, int chunks, byte[] chunkBitmap, long chunkSize) {
+		pendingProgress.remove(objId);
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objId", objId);
+		params.put("chunks", chunks);
+		params.put("chunkBitmap", chunkBitmap);
+		params.put("chunkSize", chunkSize);
+		params.put("lastActivity", System.currentTimeMillis());
+		statusDao.executeSql(RESET_PROGRESS_SQL, params);
+	}
+
+	/**
+	 * 所有上传的缓冲进度用一条批量UPDATE写库。写库期间有新进度时保留新值，下次写入
+	 */
+	@Override
+	public synchronized void flushProgress() {
+		if (pendingProgress.isEmpty()) {
+			return;
+		}
+		List<Object[]> batch = new ArrayList<Object[]>(pendingProgress.values());
+		long start = System.nanoTime();
+		statusDao.batchUpdate(UPDATE_PROGRESS_SQL, batch);
+		UploadMetrics.DB_FLUSH.recordSince(start);
+		for (Object[] args : batch) {
+			pendingProgress.remove(args[4], args);
+		}
+	}
+	
+	@Override
+	public List<TfileUploadStatus> findExpired(long before, long afterActivity, String afterId, int rows) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("before", before);
+		params.put("afterActivity", afterActivity);
+		params.put("afterId", afterId);
+		return statusDao.find(FIND_EXPIRED_HQL, params, 1, rows);
+	}
 	
+	@Override
+	public List<String> removeExpired(List<String> objIds, long before) {
+		List<String> removed = new ArrayList<String>();
+		for(String objId : objIds){
+			if(pendingProgress.containsKey(objId)){
+				// 有尚未写库的进度，仍在上传
+				continue;
+			}
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("objId", objId);
+			params.put("before", before);
+			// 查询之后可能又有分片到达，以删除时的最后活动时间为准
+			if(statusDao.executeSql(DELETE_EXPIRED_SQL, params) > 0){
+				removed.add(objId);
+			}
+		}
+		return removed;
+	}
 	
 	@Override
 	public int getChunk(String fileName){
@@ -0,0 +1,118 @@
+package service.sys.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import utils.ConfigUtil;
+import utils.MergeProgress;
+import utils.UploadMetrics;
+
+/**
+ * 后台合并队列
+ *
+ * 全部分片收齐后合并任务进入有界队列，由固定数量的后台线程执行，收到最后一片的请求立即返回。
+ * 队列满时由提交线程直接执行合并，形成反压。合并状态按上传ID记录，合并结束后保留一段时间供客户端查询
+ */
+@Component
+public class MergeQueue {
+
+	/**
+	 * 合并任务
+	 */
+	public interface MergeJob {
+		void merge(MergeProgress progress) throws Exception;
+	}
+
+	private final ConcurrentMap<String, MergeProgress> merges = new ConcurrentHashMap<String, MergeProgress>();
+
+	private final long statusTtl = ConfigUtil.getLong("upload.merge.status_ttl", 10 * 60 * 1000L);
+
+	private final ThreadPoolExecutor executor;
+
+	public MergeQueue() {
+		int threads = ConfigUtil.getInt("upload.merge.threads", 2);
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(ConfigUtil.getInt("upload.merge.queue_capacity", 1000)),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * 提交合并任务
+	 *
+	 * @return 合并进度
+	 */
+	public MergeProgress submit(final String uploadId, final MergeJob job) {
+		purgeFinished();
+		final MergeProgress progress = new MergeProgress();
+		merges.put(uploadId, progress);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean success = false;
+				long start = System.nanoTime();
+				try {
+					job.merge(progress);
+					success = true;
+					UploadMetrics.MERGE.recordSince(start);
+					UploadMetrics.MERGED.mark(progress.getMerged());
+				} catch (Exception e) {
+					System.out.println("文件合并失败：" + uploadId);
+					e.printStackTrace();
+				} finally {
+					progress.finish(success);
+				}
+			}
+		});
+		return progress;
+	}
+
+	/**
+	 * 查询合并进度，没有合并记录时返回null
+	 */
+	public MergeProgress get(String uploadId) {
+		return merges.get(uploadId);
+	}
+
+	/**
+	 * 排队中的合并任务数
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * 正在执行的合并任务数
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	private void purgeFinished() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, MergeProgress>> it = merges.entrySet().iterator();
+		while (it.hasNext()) {
+			MergeProgress progress = it.next().getValue();
+			if (progress.isFinished() && now - progress.getFinishedAt() > statusTtl) {
+				it.remove();
+			}
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,351 @@
+package service.sys.impl;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import model.sys.TfileUploadStatus;
+import service.sys.FileUploadStatusServiceI;
+import utils.ChunkBitmap;
+import utils.ConfigUtil;
+
+/**
+ * 上传会话缓存
+ *
+ * 分片进度保存在内存中，只在创建会话、每隔若干分片的检查点、上传完成以及会话被淘汰时写入数据库。
+ * 会话按上传ID区分，缓存未命中时按主键加载。类名不以Impl结尾，不在service..*Impl事务切面内，命中缓存时不开启事务
+ */
+@Component
+public class UploadSessionCache {
+
+	@Autowired
+	private FileUploadStatusServiceI statusService;
+
+	private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	private final int maxSize = ConfigUtil.getInt("upload.session_cache.max_size", 10000);
+	private final long ttl = ConfigUtil.getLong("upload.session_cache.ttl", 30 * 60 * 1000L);
+	private final int checkpoint = ConfigUtil.getInt("upload.session_cache.checkpoint", 20);
+	private final int maxParallel = ConfigUtil.getInt("upload.max_parallel_chunks", 4);
+
+	/**
+	 * 获取上传状态，缓存未命中时从数据库加载
+	 */
+	public TfileUploadStatus get(String uploadId) {
+		Session session = lookup(uploadId);
+		if (session == null) {
+			return null;
+		}
+		synchronized (session) {
+			return session.snapshot();
+		}
+	}
+
+	/**
+	 * 分片开始写入前调用，同一文件可以多个连接并发上传不同分片
+	 *
+	 * @param chunkSize
+	 *            分片大小，同一上传的分片必须一致，直接写入模式按此计算分片的位置
+	 * @return 超过单个文件的并发分片数、同一分片正在写入或文件正在合并时返回false，客户端稍后重试
+	 * @throws IllegalArgumentException
+	 *             分片序号超出范围或分片大小与上传不一致
+	 */
+	public boolean beginChunk(String uploadId, String fileName, int chunk, int chunks, long chunkSize) {
+		if (chunk < 1 || chunk > chunks) {
+			throw new IllegalArgumentException("分片序号超出范围：" + chunk + "/" + chunks);
+		}
+		Session session = sessionFor(uploadId, fileName, chunks, chunkSize);
+		synchronized (session) {
+			session.touch();
+			if (session.merging || session.inFlight.get(chunk - 1) || session.active >= maxParallel) {
+				return false;
+			}
+			if (session.bitmap.getChunks() != chunks || session.bitmap.isComplete()) {
+				// 同名文件重新上传
+				restart(session, chunks, chunkSize);
+			} else if (session.status.getChunkSize() < 0) {
+				// 升级前的记录
+				session.status.setChunkSize(chunkSize);
+			} else if (session.status.getChunkSize() != chunkSize) {
+				throw new IllegalArgumentException("分片大小与上传不一致：" + chunkSize + "/" + session.status.getChunkSize());
+			}
+			session.inFlight.set(chunk - 1);
+			session.active++;
+			return true;
+		}
+	}
+
+	/**
+	 * 分片写入失败，释放占用的并发数
+	 */
+	public void abortChunk(String uploadId, int chunk) {
+		Session session = sessions.get(uploadId);
+		if (session != null) {
+			synchronized (session) {
+				session.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * 记录写入完成的分片，分片可以乱序到达。之后只更新内存，到检查点或全部收齐时写入数据库。
+	 * 位图更新和收齐判断在同一把锁内完成，无论分片到达顺序如何，只有一次调用会得到收齐结果。
+	 * 只记录经beginChunk登记为正在写入的分片：写入期间会话被清理或丢弃后重新加载的，分片不记录，客户端重传
+	 *
+	 * @param fileLength
+	 *            收到最后一片（chunk == chunks）时的文件总长度，其余分片传-1
+	 * @return 本次调用使全部分片收齐时返回上传状态，否则返回null。收齐后须调用mergeFinished
+	 */
+	public TfileUploadStatus chunkReceived(String uploadId, String fileName, int chunk, int chunks, long fileLength) {
+		Session session = sessionFor(uploadId, fileName, chunks, -1);
+		synchronized (session) {
+			try {
+				session.touch();
+				if (session.merging || !session.inFlight.get(chunk - 1)) {
+					return null;
+				}
+				if (session.bitmap.getChunks() != chunks) {
+					restart(session, chunks, session.status.getChunkSize());
+				}
+				session.bitmap.set(chunk);
+				session.status.setChunk(chunk);
+				if (fileLength >= 0) {
+					session.status.setFileSize(fileLength);
+				}
+				boolean complete = session.bitmap.isComplete();
+				if (!session.persisted) {
+					statusService.add(uploadId, session.status.getFileName(), chunk, chunks,
+							session.bitmap.toByteArray(), session.status.getFileSize(), session.status.getChunkSize());
+					session.persisted = true;
+					session.persistedReceived = session.bitmap.received();
+				} else if (complete || session.bitmap.received() - session.persistedReceived >= checkpoint) {
+					flush(session);
+				}
+				if (!complete) {
+					return null;
+				}
+				session.merging = true;
+				return session.snapshot();
+			} finally {
+				session.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * 合并结束（无论成功与否）后移除会话
+	 */
+	public void mergeFinished(String uploadId) {
+		sessions.remove(uploadId);
+	}
+
+	/**
+	 * 不经过分片上传直接完成（秒传），按单个分片记为已收齐
+	 */
+	public void completeInstantly(String uploadId, String fileName, long fileSize) {
+		sessions.remove(uploadId);
+		statusService.delById(uploadId);
+		ChunkBitmap bitmap = new ChunkBitmap(1);
+		bitmap.set(1);
+		statusService.add(uploadId, fileName, 1, 1, bitmap.toByteArray(), fileSize, fileSize);
+	}
+
+	/**
+	 * 移除会话，未写入数据库的进度先写入
+	 */
+	public void remove(String uploadId) {
+		Session session = sessions.remove(uploadId);
+		if (session != null) {
+			synchronized (session) {
+				flush(session);
+			}
+		}
+	}
+
+	/**
+	 * 本节点上是否仍在上传：会话未过期，或有分片正在写入、正在合并。不查数据库
+	 */
+	public boolean isActive(String uploadId) {
+		Session session = sessions.get(uploadId);
+		return session != null && (!session.isExpired(ttl) || session.active > 0 || session.merging);
+	}
+
+	/**
+	 * 上传已过期被清理，丢弃会话，不写回进度
+	 */
+	public void discard(String uploadId) {
+		sessions.remove(uploadId);
+	}
+
+	/**
+	 * 缓存中的上传会话数
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * 获取会话，不存在时创建尚未写入数据库的新会话
+	 */
+	private Session sessionFor(String uploadId, String fileName, int chunks, long chunkSize) {
+		Session session = lookup(uploadId);
+		if (session == null) {
+			Session created = new Session(uploadId, fileName, chunks, chunkSize);
+			Session exists = sessions.putIfAbsent(uploadId, created);
+			session = exists != null ? exists : created;
+			evictIfNecessary();
+		}
+		return session;
+	}
+
+	private Session lookup(String uploadId) {
+		Session session = sessions.get(uploadId);
+		if (session != null) {
+			// 正在写入或合并的会话即使过期也不能丢弃，否则重新加载的会话会再次提交合并
+			if (!session.isExpired(ttl) || session.active > 0 || session.merging) {
+				session.touch();
+				return session;
+			}
+			remove(uploadId);
+		}
+		TfileUploadStatus t = statusService.getById(uploadId);
+		if (t == null) {
+			return null;
+		}
+		session = new Session(t);
+		Session exists = sessions.putIfAbsent(uploadId, session);
+		if (exists != null) {
+			return exists;
+		}
+		evictIfNecessary();
+		return session;
+	}
+
+	/**
+	 * 同名文件重新上传，清空进度。已写入数据库的立即写入空位图，
+	 * 否则会话被淘汰或节点重启后重新加载的仍是上一次已收齐的位图
+	 */
+	private void restart(Session session, int chunks, long chunkSize) {
+		session.reset(chunks, chunkSize);
+		if (session.persisted) {
+			statusService.resetProgress(session.status.getObjId(), chunks, session.bitmap.toByteArray(), chunkSize);
+			session.persistedReceived = 0;
+		}
+	}
+
+	/**
+	 * 进度交给状态服务的写缓冲，由其定时批量写库
+	 */
+	private void flush(Session session) {
+		if (session.persisted && session.bitmap.received() != session.persistedReceived) {
+			statusService.bufferProgress(session.status.getObjId(), session.status.getChunk(),
+					session.bitmap.toByteArray(), session.status.getFileSize());
+			session.persistedReceived = session.bitmap.received();
+		}
+	}
+
+	/**
+	 * 超出容量时先淘汰过期会话，仍超出则淘汰最久未访问的会话，正在写入或合并的会话不淘汰
+	 */
+	private void evictIfNecessary() {
+		if (sessions.size() <= maxSize) {
+			return;
+		}
+		for (Map.Entry<String, Session> e : sessions.entrySet()) {
+			Session session = e.getValue();
+			if (session.isExpired(ttl) && session.active == 0 && !session.merging) {
+				remove(e.getKey());
+			}
+		}
+		while (sessions.size() > maxSize) {
+			String oldest = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<String, Session> e : sessions.entrySet()) {
+				Session session = e.getValue();
+				if (session.active == 0 && !session.merging && session.lastAccess < oldestAccess) {
+					oldestAccess = session.lastAccess;
+					oldest = e.getKey();
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			remove(oldest);
+		}
+	}
+
+	private static class Session {
+		final TfileUploadStatus status;
+		ChunkBitmap bitmap;
+		boolean persisted;// 已写入数据库
+		int persistedReceived;// 已写入数据库的分片数
+		final BitSet inFlight = new BitSet();// 正在写入的分片
+		volatile int active;// 正在写入的分片数
+		volatile boolean merging;// 已收齐，正在合并
+		volatile long lastAccess;
+
+		Session(TfileUploadStatus status) {
+			this.status = status;
+			this.bitmap = ChunkBitmap.valueOf(status.getChunkBitmap(), status.getChunks());
+			this.persisted = true;
+			this.persistedReceived = bitmap.received();
+			touch();
+		}
+
+		/**
+		 * 尚未写入数据库的新会话
+		 */
+		Session(String uploadId, String fileName, int chunks, long chunkSize) {
+			this.status = new TfileUploadStatus();
+			this.status.setObjId(uploadId);
+			this.status.setFileName(fileName);
+			this.status.setChunks(chunks);
+			this.status.setChunkSize(chunkSize);
+			this.bitmap = new ChunkBitmap(chunks);
+			touch();
+		}
+
+		void reset(int chunks, long chunkSize) {
+			status.setChunk(0);
+			status.setChunks(chunks);
+			status.setChunkSize(chunkSize);
+			status.setFileSize(-1);
+			bitmap = new ChunkBitmap(chunks);
+			persistedReceived = -1;
+		}
+
+		void release(int chunk) {
+			if (inFlight.get(chunk - 1)) {
+				inFlight.clear(chunk - 1);
+				active--;
+			}
+		}
+
+		/**
+		 * 返回状态副本，避免调用方读到正在修改的对象
+		 */
+		TfileUploadStatus snapshot() {
+			TfileUploadStatus t = new TfileUploadStatus();
+			t.setObjId(status.getObjId());
+			t.setFileName(status.getFileName());
+			t.setChunk(status.getChunk());
+			t.setChunks(status.getChunks());
+			t.setChunkBitmap(bitmap.toByteArray());
+			t.setFileSize(status.getFileSize());
+			t.setChunkSize(status.getChunkSize());
+			return t;
+		}
+
+		void touch() {
+			lastAccess = System.currentTimeMillis();
+		}
+
+		boolean isExpired(long ttl) {
+			return System.currentTimeMillis() - lastAccess > ttl;
+		}
+	}
+}
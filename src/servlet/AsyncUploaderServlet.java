@@ -0,0 +1,486 @@
+package servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import utils.BufferPool;
+import utils.ChunkChecksum;
+import utils.ConfigUtil;
+import utils.MergeProgress;
+import utils.PositionalChunkWriter;
+import utils.Throttle;
+import utils.UploadMetrics;
+
+/**
+ * 非阻塞分片上传（Servlet 3.1）
+ *
+ * 请求体即分片内容（application/octet-stream），chunk、chunks、name（或uploadId）、chunkSize放在URL参数或请求头中。
+ * 通过ReadListener读取请求体，由AsynchronousFileChannel写盘，上传过程中不占用容器线程，
+ * 大量慢速客户端只消耗固定数量的磁盘IO线程。池化缓冲区只在读到数据到写盘完成之间占用，等待客户端时不占用。
+ * 分片收齐后的刷盘、保存和状态更新会阻塞（数据库、远程存储），在单独的收尾线程池中执行
+ */
+@WebServlet(urlPatterns = { "/asyncUploader" }, asyncSupported = true)
+public class AsyncUploaderServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long BUFFER_RETRY_MILLIS = 10;// 缓冲区池用完时暂停读取的时间
+
+	String uploadPath;
+	private ChunkUploadSupport support;
+	private ExecutorService ioExecutor;// 磁盘IO线程池
+	private ExecutorService completeExecutor;// 分片收尾线程池
+	private ScheduledExecutorService throttleTimer;// 超速暂停后恢复读取
+	private long asyncTimeout;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+
+		uploadPath = ChunkUploadSupport.uploadPath(servletContext);
+		try {
+			support = new ChunkUploadSupport(context, uploadPath, ChunkUploadSupport.storage(servletContext));
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+		ioExecutor = Executors.newFixedThreadPool(ConfigUtil.getInt("upload.async_io_threads", 4));
+		completeExecutor = Executors.newFixedThreadPool(ConfigUtil.getInt("upload.async_complete_threads", 8));
+		throttleTimer = Executors.newSingleThreadScheduledExecutor();
+		asyncTimeout = ConfigUtil.getLong("upload.async_timeout", 10 * 60 * 1000L);
+	}
+
+	@Override
+	public void destroy() {
+		ioExecutor.shutdown();
+		completeExecutor.shutdown();
+		throttleTimer.shutdownNow();
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		long start = System.nanoTime();
+		response.setCharacterEncoding("UTF-8");
+		Integer schunk = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(request, "chunk", "X-Chunk"));// 分割块数
+		Integer schunks = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(request, "chunks", "X-Chunks"));// 总分割数
+		String name = ChunkUploadSupport.param(request, "name", "X-File-Name");// 文件名
+		Long chunkSize = ChunkUploadSupport.toLong(ChunkUploadSupport.param(request, "chunkSize", "X-Chunk-Size"));// 分片大小
+		ChunkChecksum checksum = ChunkChecksum.of(ChunkUploadSupport.param(request, "chunkMd5", "X-Chunk-Md5"),
+				ChunkUploadSupport.param(request, "chunkCrc32", "X-Chunk-Crc32"));// 分片校验值
+		String upload = ChunkUploadSupport.uploadId(request, name);// 上传ID
+		name = support.fileName(upload, name);
+		if (name == null || (schunk != null && schunks == null)) {
+			response.getWriter().write("{\"status\":false}");
+			return;
+		}
+		try {
+			if (!support.beginChunk(upload, name, schunk, schunks, chunkSize)) {
+				ChunkUploadSupport.writeBusy(response);
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			response.getWriter().write("{\"status\":false}");
+			return;
+		}
+		try {
+			startRead(request, upload, name, schunk, schunks, chunkSize, checksum);
+			UploadMetrics.CHUNK_PARSE.recordSince(start);
+		} catch (IOException e) {
+			support.abortChunk(upload, schunk);
+			throw e;
+		} catch (RuntimeException e) {
+			support.abortChunk(upload, schunk);
+			throw e;
+		}
+	}
+
+	/**
+	 * 打开目标文件并开始非阻塞读取请求体
+	 */
+	private void startRead(HttpServletRequest request, String upload, String name, Integer schunk, Integer schunks,
+			Long chunkSize, ChunkChecksum checksum) throws IOException {
+
+		File file;
+		long offset;
+		Set<OpenOption> options = new HashSet<OpenOption>();
+		options.add(StandardOpenOption.WRITE);
+		if (support.isDirect(schunk)) {
+			options.add(StandardOpenOption.CREATE);
+			// 预分配未完成文件，分片按偏移量写入
+			file = support.partialFile(upload);
+			offset = support.offset(schunk, chunkSize);
+			PositionalChunkWriter.preallocate(file, schunks * support.chunkSize(chunkSize));
+		} else {
+			file = support.chunkFile(upload, name, schunk);
+			offset = 0;
+			// 已有的分片文件可能硬链接在分片仓库中，删除后新建，不原地截断
+			PositionalChunkWriter.delete(file);
+			options.add(StandardOpenOption.CREATE_NEW);
+		}
+
+		AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), options, ioExecutor);
+		if (!support.isDirect(schunk)) {
+			UploadMetrics.tempChanged(1, 0);
+		}
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(asyncTimeout);
+		ServletInputStream in = request.getInputStream();
+		ChunkReadListener listener = new ChunkReadListener(asyncContext, in, channel, upload, name, schunk, schunks,
+				chunkSize, offset, checksum, ChunkUploadSupport.throttle(request));
+		// 超时及连接错误由容器通知AsyncListener，不经过ReadListener.onError
+		asyncContext.addListener(listener);
+		in.setReadListener(listener);
+	}
+
+	/**
+	 * 读取请求体放入缓冲区，缓冲区写满或暂时没有可读数据时提交异步写盘并暂停读取，写盘完成后归还缓冲区并继续读取。
+	 * 有数据可读时才申请缓冲区，缓冲区池用完时暂停读取，稍后重试。
+	 * 请求体读完且最后一次写盘完成后，由收尾线程池更新状态并结束请求
+	 *
+	 * 写盘期间不调用isReady，容器不会回调onDataAvailable，由写盘完成的IO线程继续读取，同一时刻只有一个线程读取。
+	 * 超过限速时同样暂停读取，由定时线程在等待结束后继续，不占用容器线程。
+	 * 读取出错、写盘失败、请求超时都按失败处理：归还缓冲区、关闭文件、释放分片名额并结束请求
+	 */
+	private class ChunkReadListener implements ReadListener, AsyncListener, CompletionHandler<Integer, Void> {
+
+		private final AsyncContext asyncContext;
+		private final ServletInputStream in;
+		private final AsynchronousFileChannel channel;
+		private final String upload;
+		private final String name;
+		private final Integer chunk;
+		private final Integer chunks;
+		private final Long chunkSize;
+		private final long limit;// 最多写入的长度，直接写入模式下超出会覆盖下一个分片
+		private final ChunkChecksum checksum;// 分片校验，可以为null
+		private final Throttle throttle;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final long offset;// 分片起始位置
+		private ByteBuffer buffer;// 池化缓冲区，有数据待写盘时占用，写盘完成后归还
+		private boolean writing;// 缓冲区正在写盘
+		private boolean paused;// 超速，等待恢复读取
+		private boolean allRead;
+		private long position;// 缓冲区下一次写盘的位置
+		private final long started = System.nanoTime();// 开始读取请求体的时间
+
+		ChunkReadListener(AsyncContext asyncContext, ServletInputStream in, AsynchronousFileChannel channel,
+				String upload, String name, Integer chunk, Integer chunks, Long chunkSize, long offset,
+				ChunkChecksum checksum, Throttle throttle) {
+			this.asyncContext = asyncContext;
+			this.in = in;
+			this.channel = channel;
+			this.upload = upload;
+			this.name = name;
+			this.chunk = chunk;
+			this.chunks = chunks;
+			this.chunkSize = chunkSize;
+			this.limit = support.chunkLimit(chunk, chunkSize);
+			this.offset = offset;
+			this.position = offset;
+			this.checksum = checksum;
+			this.throttle = throttle;
+		}
+
+		@Override
+		public synchronized void onDataAvailable() throws IOException {
+			read();
+		}
+
+		private void read() throws IOException {
+			byte[] scratch = BufferPool.scratch();
+			while (!writing && !paused && !finished.get() && in.isReady()) {
+				if (buffer == null) {
+					buffer = support.tryAcquireBuffer();
+					if (buffer == null) {
+						// 缓冲区池用完，不等待，暂停读取后重试
+						pause(TimeUnit.MILLISECONDS.toNanos(BUFFER_RETRY_MILLIS));
+						return;
+					}
+				}
+				int n = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+				if (n == -1) {
+					// 由onAllDataRead结束
+					return;
+				}
+				if (position - offset + buffer.position() + n > limit) {
+					// 超出的部分不写盘
+					fail(new IOException("分片超出分片大小：" + chunk + "_" + upload));
+					return;
+				}
+				if (checksum != null) {
+					checksum.update(scratch, 0, n);
+				}
+				buffer.put(scratch, 0, n);
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				long wait = throttle.reserve(n);
+				if (wait > 0) {
+					pause(wait);
+				}
+			}
+			// 暂时没有可读数据，已读到的先写盘，等待客户端期间不占用缓冲区
+			if (!writing && !finished.get() && buffer != null && buffer.position() > 0) {
+				flush();
+			}
+		}
+
+		/**
+		 * 暂停读取，等待结束后继续读取；期间请求体已读完时由恢复后结束
+		 */
+		private void pause(long nanos) {
+			paused = true;
+			try {
+				throttleTimer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						resume();
+					}
+				}, nanos, TimeUnit.NANOSECONDS);
+			} catch (RuntimeException e) {
+				// 定时线程已关闭
+				paused = false;
+				fail(e);
+			}
+		}
+
+		private synchronized void resume() {
+			paused = false;
+			if (finished.get() || writing) {
+				return;
+			}
+			if (allRead) {
+				flushOrFinish();
+				return;
+			}
+			try {
+				read();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public synchronized void onAllDataRead() throws IOException {
+			allRead = true;
+			if (!writing && !paused) {
+				flushOrFinish();
+			}
+		}
+
+		@Override
+		public synchronized void onError(Throwable t) {
+			fail(t);
+		}
+
+		@Override
+		public synchronized void onTimeout(AsyncEvent event) throws IOException {
+			fail(new IOException("上传超时：" + upload + "，分片" + chunk));
+		}
+
+		@Override
+		public synchronized void onError(AsyncEvent event) throws IOException {
+			fail(event.getThrowable() != null ? event.getThrowable() : new IOException("上传连接出错：" + upload));
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+
+		@Override
+		public synchronized void completed(Integer result, Void attachment) {
+			position += result;
+			UploadMetrics.INGEST.mark(result);
+			if (!support.isDirect(chunk)) {
+				// 直接写入模式写的是已预分配的区域
+				UploadMetrics.tempChanged(0, result);
+			}
+			if (buffer.hasRemaining() && !finished.get()) {
+				channel.write(buffer, position, null, this);
+				return;
+			}
+			writing = false;
+			recycle();
+			if (finished.get()) {
+				// 写盘期间已失败
+				return;
+			} else if (paused) {
+				// 由限速恢复时继续
+				return;
+			} else if (allRead) {
+				flushOrFinish();
+			} else {
+				try {
+					read();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void failed(Throwable t, Void attachment) {
+			writing = false;
+			fail(t);
+			// 写盘期间已失败时fail不再执行，在此归还缓冲区
+			recycle();
+		}
+
+		private void flush() {
+			buffer.flip();
+			writing = true;
+			channel.write(buffer, position, null, this);
+		}
+
+		private void flushOrFinish() {
+			if (buffer != null && buffer.position() > 0) {
+				flush();
+			} else {
+				finish();
+			}
+		}
+
+		/**
+		 * 归还缓冲区，写盘进行中时由写盘完成回调归还
+		 */
+		private synchronized void recycle() {
+			if (buffer != null && !writing) {
+				support.releaseBuffer(buffer);
+				buffer = null;
+			}
+		}
+
+		/**
+		 * 请求体已全部写盘，交给收尾线程池，不在容器线程或IO线程上执行刷盘、保存和状态更新
+		 */
+		private void finish() {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			recycle();
+			try {
+				completeExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						commit();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// 收尾线程池已关闭
+				abort(e);
+			}
+		}
+
+		private void commit() {
+			try {
+				try {
+					support.checkLength(chunk, chunks, chunkSize, position - offset);
+					channel.force(false);
+				} finally {
+					channel.close();
+				}
+				// 非阻塞模式下写盘与接收交替进行，记录的是整个请求体的接收和写盘时间
+				UploadMetrics.CHUNK_WRITE.recordSince(started);
+			} catch (Exception e) {
+				support.abortChunk(upload, chunk);
+				e.printStackTrace();
+				writeFailure();
+				complete();
+				return;
+			}
+			if (checksum != null && !checksum.matches()) {
+				support.discardChunk(upload, name, chunk);
+				try {
+					ChunkUploadSupport.writeChecksumMismatch((HttpServletResponse) asyncContext.getResponse());
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					complete();
+				}
+				return;
+			}
+			support.storeChunk(upload, name, chunk, checksum, position - offset, offset);
+			try {
+				MergeProgress merge = support.chunkReceived(upload, name, chunk, chunks, position);
+				ChunkUploadSupport.writeSuccess((HttpServletResponse) asyncContext.getResponse(), name, merge);
+			} catch (Exception e) {
+				e.printStackTrace();
+				writeFailure();
+			} finally {
+				complete();
+			}
+		}
+
+		private void fail(Throwable t) {
+			if (finished.compareAndSet(false, true)) {
+				abort(t);
+			}
+		}
+
+		private void abort(Throwable t) {
+			t.printStackTrace();
+			recycle();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			support.abortChunk(upload, chunk);
+			writeFailure();
+			complete();
+		}
+
+		/**
+		 * 结束请求。收尾期间请求超时的，容器已经结束请求
+		 */
+		private void complete() {
+			try {
+				asyncContext.complete();
+			} catch (IllegalStateException e) {
+				System.out.println("请求已结束：" + upload + "，分片" + chunk);
+			}
+		}
+
+		private void writeFailure() {
+			try {
+				asyncContext.getResponse().getWriter().write("{\"status\":false}");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
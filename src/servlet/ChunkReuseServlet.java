@@ -0,0 +1,97 @@
+package servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import utils.MergeProgress;
+
+/**
+ * 分片复用检查：上传分片前提交分片的MD5（chunkMd5）和长度（chunkLength），以及与分片上传相同的name、chunk、chunks、chunkSize，
+ * 分片仓库已有相同内容时不必传输分片内容
+ *
+ * 返回 {"status":true,"exists":true} 表示该分片已完成，exists为false时客户端正常上传该分片。
+ * 需开启upload.chunk_store.enabled，且分片上传时提交chunkMd5，分片才会存入仓库
+ */
+@WebServlet(urlPatterns = { "/reuseChunk" })
+public class ChunkReuseServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	String uploadPath;
+	private ChunkUploadSupport support;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+
+		uploadPath = ChunkUploadSupport.uploadPath(servletContext);
+		try {
+			support = new ChunkUploadSupport(context, uploadPath, ChunkUploadSupport.storage(servletContext));
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/json; charset=utf-8");
+		Integer chunk = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(req, "chunk", "X-Chunk"));
+		Integer chunks = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(req, "chunks", "X-Chunks"));
+		String name = ChunkUploadSupport.param(req, "name", "X-File-Name");
+		Long chunkSize = ChunkUploadSupport.toLong(ChunkUploadSupport.param(req, "chunkSize", "X-Chunk-Size"));
+		String hash = ChunkUploadSupport.param(req, "chunkMd5", "X-Chunk-Md5");
+		Long length = ChunkUploadSupport.toLong(ChunkUploadSupport.param(req, "chunkLength", "X-Chunk-Length"));
+		String upload = ChunkUploadSupport.uploadId(req, name);
+		name = support.fileName(upload, name);
+		if (name == null || chunk == null || chunks == null || hash == null || !hash.matches("[0-9a-fA-F]{32}")
+				|| length == null || length < 0) {
+			resp.getWriter().write("{\"status\":false}");
+			return;
+		}
+		try {
+			if (!support.beginChunk(upload, name, chunk, chunks, chunkSize)) {
+				ChunkUploadSupport.writeBusy(resp);
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			resp.getWriter().write("{\"status\":false}");
+			return;
+		}
+		boolean reused = false;
+		try {
+			reused = support.reuseChunk(upload, name, chunk, chunks, chunkSize, hash.toLowerCase(), length);
+			if (!reused) {
+				resp.getWriter().write("{\"status\":true,\"exists\":false,\"newName\":\"" + name + "\"}");
+				return;
+			}
+			MergeProgress merge = support.chunkReceived(upload, name, chunk, chunks,
+					support.offset(chunk, chunkSize) + length);
+			resp.getWriter().write("{\"status\":true,\"exists\":true,\"newName\":\"" + name + "\""
+					+ ChunkUploadSupport.mergeJson(merge) + "}");
+		} catch (Exception e) {
+			e.printStackTrace();
+			resp.getWriter().write("{\"status\":false}");
+		} finally {
+			if (!reused) {
+				support.abortChunk(upload, chunk);
+			}
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		doGet(req, resp);
+	}
+}
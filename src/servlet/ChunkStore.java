@@ -0,0 +1,165 @@
+package servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.sys.TchunkStore;
+import service.sys.ChunkStoreServiceI;
+import utils.ConfigUtil;
+import utils.PositionalChunkWriter;
+import utils.UploadLayout;
+import utils.UploadMetrics;
+
+/**
+ * 按内容寻址的分片仓库
+ *
+ * 分片以“MD5_长度”为文件名按UploadLayout分层保存在上传目录的.chunks下，引用关系和引用数由ChunkStoreServiceI维护。
+ * 分片文件模式下上传的分片以硬链接存入仓库，复用时再硬链接回上传分片，合并读取的就是仓库中的分片。
+ * 引用按上传ID记录，只在上传期间保留：合并结束（成功或失败）或上传过期被清理时释放该上传的全部引用，
+ * 合并后的文件是新的文件，不依赖仓库分片。无引用的分片再保留upload.chunk_store.gc_grace，
+ * 这段时间内的上传仍可复用，之后由collect删除
+ */
+class ChunkStore {
+
+	private final ChunkStoreServiceI storeService;
+	private final File dir;
+	private final long gcGrace = ConfigUtil.getLong("upload.chunk_store.gc_grace", 60 * 60 * 1000L);
+	private final long gcInterval = ConfigUtil.getLong("upload.chunk_store.gc_interval", 10 * 60 * 1000L);
+	private final AtomicLong lastGc = new AtomicLong(System.currentTimeMillis());
+
+	ChunkStore(ChunkStoreServiceI storeService, File uploadDir) {
+		this.storeService = storeService;
+		this.dir = new File(uploadDir, ".chunks");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+	}
+
+	File file(String hash, long size) {
+		return UploadLayout.file(dir, hash + "_" + size);
+	}
+
+	boolean contains(String hash, long size) {
+		File file = file(hash, size);
+		return file.isFile() && file.length() == size;
+	}
+
+	/**
+	 * 存入分片，仓库已有相同内容时不重复存储
+	 *
+	 * @param source
+	 *            分片所在文件
+	 * @param offset
+	 *            分片在文件中的偏移量
+	 * @param link
+	 *            source之后不会被原地改写时为true，此时偏移量为0且长度相同则以硬链接存入。
+	 *            直接写入模式的未完成文件还会按偏移量写入和截断，只能复制
+	 */
+	void put(String hash, long size, File source, long offset, boolean link) throws IOException {
+		File file = UploadLayout.mkdirs(file(hash, size));
+		if (contains(hash, size)) {
+			return;
+		}
+		if (link && offset == 0 && source.length() == size) {
+			try {
+				Files.createLink(file.toPath(), source.toPath());
+				UploadMetrics.CHUNK_STORE_BYTES.addAndGet(size);
+				return;
+			} catch (FileAlreadyExistsException e) {
+				return;
+			} catch (IOException e) {
+				// 不支持硬链接，复制
+			} catch (UnsupportedOperationException e) {
+				// 不支持硬链接，复制
+			}
+		}
+		// 先写临时文件再改名，其他线程不会读到不完整的分片
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			try (FileChannel in = new FileInputStream(source).getChannel();
+					FileChannel out = new FileOutputStream(tmp).getChannel()) {
+				long position = 0;
+				while (position < size) {
+					long n = in.transferTo(offset + position, size - position, out);
+					if (n <= 0) {
+						throw new IOException("分片超出文件长度：" + source.getName());
+					}
+					position += n;
+				}
+			}
+			// 并发存入相同内容时后改名的覆盖先改名的，只计入一次
+			boolean replaced = file.exists();
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			if (!replaced) {
+				UploadMetrics.CHUNK_STORE_BYTES.addAndGet(size);
+			}
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+	}
+
+	/**
+	 * 以仓库分片生成上传分片，不支持硬链接时复制
+	 */
+	void linkTo(String hash, long size, File target) throws IOException {
+		File file = file(hash, size);
+		PositionalChunkWriter.delete(target);
+		try {
+			Files.createLink(target.toPath(), file.toPath());
+		} catch (IOException e) {
+			Files.copy(file.toPath(), target.toPath());
+		} catch (UnsupportedOperationException e) {
+			Files.copy(file.toPath(), target.toPath());
+		}
+		UploadMetrics.tempChanged(1, size);
+	}
+
+	void addReference(String upload, String fileName, int chunk, String hash, long size) {
+		storeService.addReference(upload, fileName, chunk, hash, size);
+	}
+
+	void deleteReference(String upload, int chunk) {
+		storeService.deleteReference(upload, chunk);
+	}
+
+	/**
+	 * 释放上传的全部引用，合并结束或上传被清理时调用
+	 */
+	void release(String upload) {
+		storeService.deleteReferences(upload, 1);
+	}
+
+	/**
+	 * 合并结束：释放上传的全部引用，并按间隔回收无引用的分片
+	 */
+	void fileCompleted(String upload) {
+		release(upload);
+		collect();
+	}
+
+	/**
+	 * 删除引用数为0且超过保留时间的分片，保留时间内仍可被正在上传的文件复用
+	 */
+	void collect() {
+		long now = System.currentTimeMillis();
+		long last = lastGc.get();
+		if (now - last < gcInterval || !lastGc.compareAndSet(last, now)) {
+			return;
+		}
+		for (TchunkStore t : storeService.removeUnreferenced(now - gcGrace)) {
+			File file = file(t.getChunkHash(), t.getChunkSize());
+			if (file.delete()) {
+				UploadMetrics.CHUNK_STORE_BYTES.addAndGet(-t.getChunkSize());
+			} else if (file.exists()) {
+				System.out.println("删除无引用分片失败：" + file.getName());
+			}
+		}
+	}
+}
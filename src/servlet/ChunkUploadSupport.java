@@ -0,0 +1,545 @@
+package servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.util.Locale;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+
+import model.sys.TfileHash;
+import model.sys.TfileUploadStatus;
+import service.sys.ChunkStoreServiceI;
+import service.sys.FileHashServiceI;
+import service.sys.FileUploadStatusServiceI;
+import service.sys.impl.MergeQueue;
+import service.sys.impl.UploadSessionCache;
+import utils.BufferPool;
+import utils.ChunkBitmap;
+import utils.ChunkChecksum;
+import utils.ConfigUtil;
+import utils.DigestUtil;
+import utils.LocalUploadStorage;
+import utils.MergeProgress;
+import utils.PositionalChunkWriter;
+import utils.S3UploadStorage;
+import utils.StoredObject;
+import utils.StringUtils;
+import utils.Throttle;
+import utils.UploadLayout;
+import utils.UploadMetrics;
+import utils.UploadStorageI;
+
+/**
+ * 分片上传公共处理：参数读取、分片落盘位置、上传状态更新及最后一片的合并
+ *
+ * 同步上传Servlet和异步上传Servlet共用
+ */
+class ChunkUploadSupport {
+
+	static final int SC_TOO_MANY_REQUESTS = 429;
+
+	private static final Throttle UNLIMITED = new Throttle(null, null);
+
+	private static final String STORAGE_ATTRIBUTE = "upload.storage";
+
+	private final UploadSessionCache sessionCache;
+	private final MergeQueue mergeQueue;
+	private final FileHashServiceI fileHashService;
+	private final FileUploadStatusServiceI statusService;
+	private final ChunkStore chunkStore;// 分片仓库，未启用时为null
+	private final UploadStorageI storage;
+	private final File uploadDir;// 分片暂存目录，本地存储时即存储目录
+	private final boolean directWrite;// 是否按偏移量直接写入目标文件
+	private final long defaultChunkSize;// 客户端未传chunkSize时使用的分片大小
+	private final boolean dedup;// 合并后是否登记文件内容用于秒传
+	private final long bufferTimeout;// 等待空闲写盘缓冲区的最长时间（毫秒）
+
+	/**
+	 * @param storage
+	 *            上传文件的存储。直接写入模式、合并后登记秒传和分片仓库依赖本地文件，非本地存储时不启用
+	 */
+	ChunkUploadSupport(WebApplicationContext context, String uploadPath, UploadStorageI storage) {
+		this.sessionCache = (UploadSessionCache) context.getBean("uploadSessionCache");
+		this.mergeQueue = (MergeQueue) context.getBean("mergeQueue");
+		this.fileHashService = (FileHashServiceI) context.getBean("fileHashServiceImpl");
+		this.statusService = (FileUploadStatusServiceI) context.getBean("fileUploadStatusServiceImpl");
+		this.storage = storage;
+		this.uploadDir = new File(uploadPath);
+		boolean local = storage instanceof LocalUploadStorage;
+		this.directWrite = local && "direct".equals(ConfigUtil.get("upload.write_mode", "parts"));
+		this.defaultChunkSize = ConfigUtil.getLong("upload.chunk_size", 2 * 1024 * 1024L);
+		this.dedup = local && ConfigUtil.getBoolean("upload.dedup.enabled", true);
+		this.bufferTimeout = ConfigUtil.getLong("upload.buffer_pool.acquire_timeout", 1000);
+		this.chunkStore = chunkStore(context, storage, uploadDir);
+	}
+
+	/**
+	 * 分片仓库：upload.chunk_store.enabled且为本地存储时启用，否则返回null
+	 */
+	static ChunkStore chunkStore(WebApplicationContext context, UploadStorageI storage, File uploadDir) {
+		if (!(storage instanceof LocalUploadStorage) || !ConfigUtil.getBoolean("upload.chunk_store.enabled", false)) {
+			return null;
+		}
+		return new ChunkStore((ChunkStoreServiceI) context.getBean("chunkStoreServiceImpl"), uploadDir);
+	}
+
+	/**
+	 * 本地上传目录：upload.storage.local_dir，未配置时为应用内的datas/uploader
+	 */
+	static String uploadPath(ServletContext servletContext) {
+		String path = ConfigUtil.get("upload.storage.local_dir", null);
+		if (path == null) {
+			path = servletContext.getRealPath("datas/uploader");
+		}
+		File up = new File(path);
+		if (!up.exists()) {
+			up.mkdirs();
+		}
+		return path;
+	}
+
+	/**
+	 * 各Servlet共用的存储，按upload.storage.type创建一次后保存在ServletContext中
+	 */
+	static synchronized UploadStorageI storage(ServletContext servletContext) throws IOException {
+		UploadStorageI storage = (UploadStorageI) servletContext.getAttribute(STORAGE_ATTRIBUTE);
+		if (storage == null) {
+			if ("s3".equals(ConfigUtil.get("upload.storage.type", "local"))) {
+				storage = new S3UploadStorage(ConfigUtil.get("upload.storage.s3.endpoint"),
+						ConfigUtil.get("upload.storage.s3.bucket"), ConfigUtil.get("upload.storage.s3.prefix", ""),
+						ConfigUtil.get("upload.storage.s3.region", "us-east-1"),
+						ConfigUtil.get("upload.storage.s3.access_key"), ConfigUtil.get("upload.storage.s3.secret_key"),
+						ConfigUtil.getInt("upload.storage.s3.timeout", 60000));
+			} else {
+				storage = new LocalUploadStorage(new File(uploadPath(servletContext)));
+			}
+			servletContext.setAttribute(STORAGE_ATTRIBUTE, storage);
+		}
+		return storage;
+	}
+
+	/**
+	 * 当前分片是否按偏移量直接写入未完成文件
+	 */
+	boolean isDirect(Integer chunk) {
+		return directWrite && chunk != null;
+	}
+
+	long chunkSize(Long chunkSize) {
+		return chunkSize != null ? chunkSize : defaultChunkSize;
+	}
+
+	/**
+	 * 分片在目标文件中的偏移量，分片序号从1开始
+	 */
+	long offset(int chunk, Long chunkSize) {
+		return (chunk - 1) * chunkSize(chunkSize);
+	}
+
+	/**
+	 * 分片最多写入的长度：直接写入模式下为分片大小，超出的部分会覆盖下一个分片；分片文件模式下不限制
+	 */
+	long chunkLimit(Integer chunk, Long chunkSize) {
+		return isDirect(chunk) ? chunkSize(chunkSize) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * 直接写入模式下检查分片长度：不超过分片大小，除最后一片外等于分片大小，否则相邻分片被覆盖或文件中留下空洞
+	 *
+	 * @throws IOException
+	 *             长度不符，分片按失败处理
+	 */
+	void checkLength(Integer chunk, Integer chunks, Long chunkSize, long length) throws IOException {
+		if (!isDirect(chunk)) {
+			return;
+		}
+		long size = chunkSize(chunkSize);
+		if (length > size || (chunk.intValue() < chunks.intValue() && length != size)) {
+			throw new IOException("分片长度与分片大小不符：分片" + chunk + "/" + chunks + "，长度" + length + "，分片大小" + size);
+		}
+	}
+
+	/**
+	 * 上传ID：客户端传uploadId（由/initUpload分配）时使用该ID，否则由文件名生成，同名文件共用一个上传
+	 *
+	 * @param uploadId
+	 *            客户端传的上传ID，可以为null
+	 * @return 上传ID格式不正确或两者都为空时返回null
+	 */
+	static String uploadId(String uploadId, String name) {
+		if (uploadId != null) {
+			// 上传ID用于分片文件名，只允许字母和数字
+			return uploadId.matches("[0-9A-Za-z]{1,36}") ? uploadId : null;
+		}
+		if (name == null) {
+			return null;
+		}
+		try {
+			return DigestUtil.toHex(DigestUtil.md5().digest(name.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 请求中的上传ID，见uploadId(String, String)
+	 */
+	static String uploadId(HttpServletRequest request, String name) {
+		return uploadId(param(request, "uploadId", "X-Upload-Id"), name);
+	}
+
+	/**
+	 * 文件名：请求中没有时取/initUpload登记的文件名
+	 *
+	 * @return 都没有时返回null
+	 */
+	String fileName(String upload, String name) {
+		if (name != null || upload == null) {
+			return name;
+		}
+		TfileUploadStatus t = sessionCache.get(upload);
+		return t == null ? null : t.getFileName();
+	}
+
+	/**
+	 * 新建上传，返回上传ID。分片大小随上传保存，之后的分片必须一致
+	 */
+	String initUpload(String name, int chunks, Long chunkSize) {
+		return statusService.add(name, 0, chunks, new ChunkBitmap(chunks).toByteArray(), -1, chunkSize(chunkSize));
+	}
+
+	/**
+	 * 直接写入模式下的未完成文件，所在子目录不存在时创建
+	 */
+	File partialFile(String upload) {
+		return UploadLayout.mkdirs(PositionalChunkWriter.partialFile(uploadDir, upload));
+	}
+
+	/**
+	 * 分片文件模式下的分片文件，不分片时即为目标文件，所在子目录不存在时创建
+	 */
+	File chunkFile(String upload, String name, Integer chunk) {
+		return UploadLayout.mkdirs(chunk == null ? LocalUploadStorage.file(uploadDir, name)
+				: LocalUploadStorage.chunkFile(uploadDir, upload, chunk));
+	}
+
+	/**
+	 * 分片开始写入前申请并发名额，不分片上传时不限制
+	 *
+	 * @return 名额不足时返回false，此时不能写入分片
+	 * @throws IllegalArgumentException
+	 *             分片序号超出范围或分片大小与上传不一致
+	 */
+	boolean beginChunk(String upload, String name, Integer chunk, Integer chunks, Long chunkSize) {
+		if (chunk != null && !sessionCache.beginChunk(upload, name, chunk, chunks, chunkSize(chunkSize))) {
+			return false;
+		}
+		UploadMetrics.ACTIVE_CHUNKS.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * 申请写盘缓冲区，缓冲区池用完时等待其他上传归还
+	 *
+	 * @return 等待超时返回null，此时应按繁忙响应，客户端稍后重试
+	 */
+	ByteBuffer acquireBuffer() {
+		try {
+			return BufferPool.shared().acquire(bufferTimeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * 申请写盘缓冲区，不等待，异步上传在容器线程或IO线程上调用，不能阻塞
+	 *
+	 * @return 缓冲区池用完时返回null
+	 */
+	ByteBuffer tryAcquireBuffer() {
+		return BufferPool.shared().tryAcquire();
+	}
+
+	void releaseBuffer(ByteBuffer buffer) {
+		BufferPool.shared().release(buffer);
+	}
+
+	/**
+	 * 分片写入失败，释放并发名额
+	 */
+	void abortChunk(String upload, Integer chunk) {
+		UploadMetrics.ACTIVE_CHUNKS.decrementAndGet();
+		UploadMetrics.CHUNKS_REJECTED.incrementAndGet();
+		if (chunk != null) {
+			sessionCache.abortChunk(upload, chunk);
+		}
+	}
+
+	/**
+	 * 分片校验失败：分片文件模式下删除分片文件，直接写入模式下该区域由重传的分片覆盖，再释放并发名额
+	 */
+	void discardChunk(String upload, String name, Integer chunk) {
+		if (!isDirect(chunk)) {
+			File file = chunkFile(upload, name, chunk);
+			try {
+				PositionalChunkWriter.delete(file);
+			} catch (IOException e) {
+				System.out.println("删除校验失败的分片失败：" + file.getName());
+			}
+		}
+		abortChunk(upload, chunk);
+	}
+
+	/**
+	 * 校验通过的分片存入分片仓库，供之后的上传复用。存入失败不影响本次上传
+	 *
+	 * @param length
+	 *            分片长度
+	 * @param offset
+	 *            直接写入模式下分片在未完成文件中的偏移量
+	 */
+	void storeChunk(String upload, String name, Integer chunk, ChunkChecksum checksum, long length, long offset) {
+		if (chunkStore == null || chunk == null || checksum == null || checksum.getMd5() == null) {
+			return;
+		}
+		try {
+			if (isDirect(chunk)) {
+				chunkStore.put(checksum.getMd5(), length, partialFile(upload), offset, false);
+			} else {
+				chunkStore.put(checksum.getMd5(), length, chunkFile(upload, name, chunk), 0, true);
+			}
+			chunkStore.addReference(upload, name, chunk, checksum.getMd5(), length);
+		} catch (Exception e) {
+			System.out.println("分片存入仓库失败：" + chunk + "_" + name);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 分片复用：仓库已有相同内容（MD5和长度都相同）的分片时，不传输分片内容，直接由仓库分片生成。
+	 * 调用前须通过beginChunk申请名额，返回true后按正常分片调用chunkReceived
+	 *
+	 * @return 仓库中没有该分片时返回false，客户端正常上传
+	 */
+	boolean reuseChunk(String upload, String name, int chunk, int chunks, Long chunkSize, String hash, long length)
+			throws IOException {
+		if (chunkStore == null || !chunkStore.contains(hash, length)) {
+			return false;
+		}
+		checkLength(chunk, chunks, chunkSize, length);
+		// 先加引用，之后不会被回收；没有生成分片时撤销
+		chunkStore.addReference(upload, name, chunk, hash, length);
+		File stored = chunkStore.file(hash, length);
+		boolean reused = false;
+		try {
+			if (isDirect(chunk)) {
+				try (InputStream in = new FileInputStream(stored)) {
+					PositionalChunkWriter.write(partialFile(upload), in, offset(chunk, chunkSize),
+							chunks * chunkSize(chunkSize));
+				}
+			} else {
+				chunkStore.linkTo(hash, length, chunkFile(upload, name, chunk));
+			}
+			reused = true;
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			// 检查之后被回收
+		} finally {
+			if (!reused) {
+				chunkStore.deleteReference(upload, chunk);
+			}
+		}
+		return reused;
+	}
+
+	/**
+	 * 分片已落盘：交给存储保存，再更新上传状态并释放并发名额，全部分片收齐时提交后台合并，分片可以乱序到达
+	 *
+	 * @param fileLength
+	 *            直接写入模式下本分片写完后的结束位置
+	 * @return 提交合并时返回合并进度，否则返回null
+	 * @throws IOException
+	 *             存储保存失败，此时已释放并发名额，分片未记录
+	 */
+	MergeProgress chunkReceived(String upload, String name, Integer chunk, Integer chunks, long fileLength)
+			throws IOException {
+		long start = System.nanoTime();
+		if (!isDirect(chunk)) {
+			try {
+				if (chunk == null) {
+					storage.put(name, chunkFile(upload, name, null));
+					if (dedup) {
+						// 不分片上传不计算摘要，同名文件原先登记的内容已失效
+						fileHashService.deleteByFileName(name);
+					}
+				} else {
+					storage.putChunk(upload, name, chunk, chunks, chunkFile(upload, name, chunk));
+				}
+			} catch (IOException e) {
+				abortChunk(upload, chunk);
+				throw e;
+			}
+		}
+		try {
+			return received(upload, name, chunk, chunks, fileLength);
+		} finally {
+			UploadMetrics.CHUNK_STATUS.recordSince(start);
+			UploadMetrics.ACTIVE_CHUNKS.decrementAndGet();
+			UploadMetrics.CHUNKS.incrementAndGet();
+		}
+	}
+
+	private MergeProgress received(final String upload, String name, final Integer chunk, final Integer chunks,
+			long fileLength) {
+		if (chunk == null) {
+			return null;
+		}
+		// 只有最后一片的结束位置是文件总长度
+		long lastLength = isDirect(chunk) && chunk.intValue() == chunks.intValue() ? fileLength : -1;
+		final TfileUploadStatus complete = sessionCache.chunkReceived(upload, name, chunk, chunks, lastLength);
+		if (complete == null) {
+			return null;
+		}
+		// 合并到创建上传时登记的文件名
+		final String target = complete.getFileName();
+		return mergeQueue.submit(upload, new MergeQueue.MergeJob() {
+			@Override
+			public void merge(MergeProgress progress) throws Exception {
+				File file = UploadLayout.mkdirs(LocalUploadStorage.file(uploadDir, target));
+				MessageDigest digest = null;
+				long length;
+				try {
+					if (isDirect(chunk)) {
+						// 截断并原子重命名
+						PositionalChunkWriter.complete(partialFile(upload), file, complete.getFileSize(), progress);
+						length = complete.getFileSize();
+					} else {
+						// 由存储按序合成，本地存储合并的同时计算整个文件的MD5
+						digest = dedup ? DigestUtil.md5() : null;
+						length = storage.compose(upload, target, chunks, progress, digest);
+					}
+				} finally {
+					sessionCache.mergeFinished(upload);
+					if (chunkStore != null) {
+						try {
+							chunkStore.fileCompleted(upload);
+						} catch (RuntimeException e) {
+							// 不掩盖合并本身的结果，残留的引用在上传过期时由UploadReaper释放
+							e.printStackTrace();
+						}
+					}
+				}
+				if (dedup) {
+					// 登记文件内容，之后相同内容的上传可以秒传
+					// 直接写入模式下分片乱序写入，没有合并过程，只能在完成后读一遍文件
+					String hash = digest != null ? DigestUtil.toHex(digest.digest()) : DigestUtil.md5Hex(file);
+					fileHashService.register(hash, length, target);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 秒传：已存储相同内容（MD5和长度都相同）的文件时，由存储复制生成目标文件并记为上传完成，
+	 * 本地存储以硬链接方式复制
+	 *
+	 * @return 没有相同内容的文件时返回false，客户端正常分片上传
+	 */
+	boolean instantUpload(String upload, String name, String hash, long size) throws IOException {
+		if (!dedup) {
+			return false;
+		}
+		TfileHash stored = fileHashService.get(hash, size);
+		if (stored == null) {
+			return false;
+		}
+		StoredObject source = storage.stat(stored.getFileName());
+		if (source == null || source.getLength() != size) {
+			// 已登记的文件被删除或改动
+			fileHashService.delete(hash, size);
+			return false;
+		}
+		storage.copy(stored.getFileName(), name);
+		// 目标文件名原先登记的其他内容已被覆盖
+		fileHashService.register(hash, size, name);
+		sessionCache.completeInstantly(upload, name, size);
+		return true;
+	}
+
+	/**
+	 * 分片上传成功的响应，提交合并时带上合并状态
+	 */
+	static void writeSuccess(HttpServletResponse response, String name, MergeProgress merge) throws IOException {
+		if (merge == null) {
+			response.getWriter().write("{\"status\":true,\"newName\":\"" + name + "\"}");
+		} else {
+			response.getWriter().write(
+					"{\"status\":true,\"newName\":\"" + name + "\",\"state\":\"" + merge.getState() + "\"}");
+		}
+	}
+
+	/**
+	 * 合并状态的JSON片段，以逗号开头，没有合并记录时返回空串
+	 */
+	static String mergeJson(MergeProgress merge) {
+		if (merge == null) {
+			return "";
+		}
+		return ",\"state\":\"" + merge.getState() + "\",\"progress\":"
+				+ String.format(Locale.ROOT, "%.4f", merge.getPercent());
+	}
+
+	/**
+	 * 并发名额不足时的响应，客户端稍后重试该分片
+	 */
+	static void writeBusy(HttpServletResponse response) throws IOException {
+		response.setStatus(SC_TOO_MANY_REQUESTS);
+		response.getWriter().write("{\"status\":false,\"retry\":true}");
+	}
+
+	/**
+	 * 分片校验失败的响应，客户端重传该分片
+	 */
+	static void writeChecksumMismatch(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		response.getWriter().write("{\"status\":false,\"retry\":true,\"error\":\"checksum\"}");
+	}
+
+	/**
+	 * 准入过滤器为请求分配的限速器，未经过滤器（准入控制关闭）时不限速
+	 */
+	static Throttle throttle(HttpServletRequest request) {
+		Throttle throttle = (Throttle) request.getAttribute(UploadAdmissionFilter.THROTTLE_ATTRIBUTE);
+		return throttle != null ? throttle : UNLIMITED;
+	}
+
+	/**
+	 * 先取URL参数，没有再取请求头
+	 */
+	static String param(HttpServletRequest request, String name, String header) {
+		String value = request.getParameter(name);
+		if (StringUtils.isEmpty(value)) {
+			value = request.getHeader(header);
+		}
+		return StringUtils.isEmpty(value) ? null : value;
+	}
+
+	static Integer toInteger(String value) {
+		return value == null ? null : Integer.valueOf(value.trim());
+	}
+
+	static Long toLong(String value) {
+		return value == null ? null : Long.valueOf(value.trim());
+	}
+}
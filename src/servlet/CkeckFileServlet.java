@@ -16,12 +16,16 @@ import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
 import model.sys.TfileUploadStatus;
-import service.sys.FileUploadStatusServiceI;
+import service.sys.impl.MergeQueue;
+import service.sys.impl.UploadSessionCache;
+import utils.ChunkBitmap;
+import utils.UploadMetrics;
 
 @WebServlet(urlPatterns = { "/ckeckFileServlet" })
 public class CkeckFileServlet extends HttpServlet {
 
-	private FileUploadStatusServiceI statusService;
+	private UploadSessionCache sessionCache;
+	private MergeQueue mergeQueue;
 	String repositoryPath;
 	String uploadPath;
 
@@ -29,34 +33,42 @@ public class CkeckFileServlet extends HttpServlet {
 	public void init(ServletConfig config) throws ServletException {
 		ServletContext servletContext = config.getServletContext();
 		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
-		statusService = (FileUploadStatusServiceI) context.getBean("FileUploadStatusServiceImpl");
+		sessionCache = (UploadSessionCache) context.getBean("uploadSessionCache");
+		mergeQueue = (MergeQueue) context.getBean("mergeQueue");
 
 		repositoryPath = FileUtils.getTempDirectoryPath();
-		uploadPath = config.getServletContext().getRealPath("datas/uploader");
-		File up = new File(uploadPath);
-		if (!up.exists()) {
-			up.mkdir();
-		}
+		uploadPath = ChunkUploadSupport.uploadPath(servletContext);
 	}
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		// TODO Auto-generated method stub
+		long start = System.nanoTime();
 
-		String fileName = new String(req.getParameter("filename"));
+		String fileName = req.getParameter("filename");
 		//String chunk = req.getParameter("chunk");
 		//System.out.println(chunk);
 		System.out.println(fileName);
 		resp.setContentType("text/json; charset=utf-8");
 
-		TfileUploadStatus file = statusService.get(fileName);
+		// 带uploadId时按上传ID查询，否则按文件名
+		String upload = ChunkUploadSupport.uploadId(req, fileName);
+		TfileUploadStatus file = upload == null ? null : sessionCache.get(upload);
 
 		try {
 			if (file != null) {
-				int schunk = file.getChunk();
-				deleteFile(uploadPath + schunk + "_" + fileName);
-				//long off = schunk * Long.parseLong(chunkSize);
-				resp.getWriter().write("{\"off\":" + schunk + "}");
+				// 分片写完后才记入位图，已记录的分片不需要重传，off为第一个缺失的分片，missing为全部缺失分片
+				ChunkBitmap bitmap = ChunkBitmap.valueOf(file.getChunkBitmap(), file.getChunks());
+				StringBuilder missing = new StringBuilder();
+				for (Integer i : bitmap.missing()) {
+					if (missing.length() > 0) {
+						missing.append(",");
+					}
+					missing.append(i);
+				}
+				// 全部收齐后附带后台合并状态及进度
+				resp.getWriter().write("{\"off\":" + bitmap.firstMissing() + ",\"missing\":[" + missing + "]"
+						+ ChunkUploadSupport.mergeJson(mergeQueue.get(upload)) + "}");
 
 			} else {
 				resp.getWriter().write("{\"off\":1}");
@@ -64,6 +76,8 @@ public class CkeckFileServlet extends HttpServlet {
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			UploadMetrics.STATUS_LOOKUP.recordSince(start);
 		}
 	}
 
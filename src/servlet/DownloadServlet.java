@@ -0,0 +1,329 @@
+package servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.BufferPool;
+import utils.PositionalChunkWriter;
+import utils.StoredObject;
+import utils.StringUtils;
+import utils.UploadLayout;
+import utils.UploadStorageI;
+
+/**
+ * 下载已合并的文件，支持断点续传和多连接分段下载
+ *
+ * 支持Range（返回206，多个区间时为multipart/byteranges）、ETag、Last-Modified以及
+ * If-None-Match、If-Modified-Since、If-Match、If-Unmodified-Since、If-Range条件请求。
+ * 本地存储时，容器支持sendfile（Tomcat NIO/APR）由容器零拷贝发送，否则用FileChannel.transferTo写到响应流；
+ * 对象存储按区间读取后写到响应流
+ */
+@WebServlet(urlPatterns = { "/download" })
+public class DownloadServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String BOUNDARY = "UPLOAD_BYTERANGES";
+
+	private static final int MAX_RANGES = 16;// 单个请求最多的区间数，超出时返回整个文件
+
+	private static final long SENDFILE_MIN_SIZE = 48 * 1024;// 小文件直接写出，sendfile反而更慢
+
+	private File uploadDir;
+	private UploadStorageI storage;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		uploadDir = new File(ChunkUploadSupport.uploadPath(config.getServletContext()));
+		try {
+			storage = ChunkUploadSupport.storage(config.getServletContext());
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		serve(req, resp, true);
+	}
+
+	@Override
+	protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		serve(req, resp, false);
+	}
+
+	private void serve(HttpServletRequest req, HttpServletResponse resp, boolean content) throws IOException {
+		String name = req.getParameter("filename");
+		StoredObject object = resolve(name);
+		if (object == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		File file = storage.localFile(name);// 非本地存储时为null
+		long length = object.getLength();
+		long lastModified = object.getLastModified() / 1000 * 1000;// HTTP日期精确到秒
+		String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setHeader("ETag", etag);
+		resp.setDateHeader("Last-Modified", lastModified);
+		if (!checkConditions(req, resp, etag, lastModified)) {
+			return;
+		}
+
+		List<long[]> ranges = null;
+		String range = req.getHeader("Range");
+		if (range != null && ifRangeMatches(req, etag, lastModified)) {
+			ranges = parseRanges(range, length);
+			if (ranges != null && ranges.isEmpty()) {
+				resp.setHeader("Content-Range", "bytes */" + length);
+				resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+
+		String contentType = getServletContext().getMimeType(name);
+		if (contentType == null) {
+			contentType = "application/octet-stream";
+		}
+		resp.setHeader("Content-Disposition", "attachment; filename*=UTF-8''" + URLEncoder.encode(name, "UTF-8").replace("+", "%20"));
+
+		if (ranges == null) {
+			resp.setContentType(contentType);
+			resp.setHeader("Content-Length", String.valueOf(length));
+			if (content) {
+				send(req, resp, name, file, 0, length);
+			}
+		} else if (ranges.size() == 1) {
+			long[] r = ranges.get(0);
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setContentType(contentType);
+			resp.setHeader("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + length);
+			resp.setHeader("Content-Length", String.valueOf(r[1] - r[0] + 1));
+			if (content) {
+				send(req, resp, name, file, r[0], r[1] - r[0] + 1);
+			}
+		} else {
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setContentType("multipart/byteranges; boundary=" + BOUNDARY);
+			if (content) {
+				sendMultipart(resp, name, file, ranges, contentType, length);
+			}
+		}
+	}
+
+	/**
+	 * 只提供已完成的文件：文件名不能带路径（不能跳出上传目录或访问分片仓库等子目录），不能是未完成文件
+	 *
+	 * @return 文件不存在或不能下载时返回null
+	 */
+	private StoredObject resolve(String fileName) throws IOException {
+		if (StringUtils.isEmpty(fileName) || fileName.endsWith(PositionalChunkWriter.PARTIAL_SUFFIX)
+				|| fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0 || fileName.equals("..")) {
+			return null;
+		}
+		File file = storage.localFile(fileName);
+		// 文件须在上传目录中按UploadLayout分配的子目录下，不能经符号链接指向别处
+		if (file != null && (!file.isFile() || !file.getCanonicalFile().getParentFile()
+				.equals(UploadLayout.file(uploadDir.getCanonicalFile(), fileName).getParentFile()))) {
+			return null;
+		}
+		return storage.stat(fileName);
+	}
+
+	/**
+	 * 处理条件请求
+	 *
+	 * @return 已返回304或412时返回false
+	 */
+	private static boolean checkConditions(HttpServletRequest req, HttpServletResponse resp, String etag, long lastModified)
+			throws IOException {
+		String ifMatch = req.getHeader("If-Match");
+		if (ifMatch != null && !matches(ifMatch, etag)) {
+			resp.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+			return false;
+		}
+		long ifUnmodifiedSince = dateHeader(req, "If-Unmodified-Since");
+		if (ifMatch == null && ifUnmodifiedSince != -1 && lastModified > ifUnmodifiedSince) {
+			resp.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+			return false;
+		}
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			if (matches(ifNoneMatch, etag)) {
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return false;
+			}
+			return true;
+		}
+		long ifModifiedSince = dateHeader(req, "If-Modified-Since");
+		if (ifModifiedSince != -1 && lastModified <= ifModifiedSince) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * If-Range与当前文件一致（或没有If-Range）时才按Range返回，否则返回整个文件
+	 */
+	private static boolean ifRangeMatches(HttpServletRequest req, String etag, long lastModified) {
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		long date = dateHeader(req, "If-Range");
+		return date != -1 && lastModified <= date;
+	}
+
+	private static boolean matches(String header, String etag) {
+		for (String tag : header.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long dateHeader(HttpServletRequest req, String name) {
+		try {
+			return req.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * 解析Range头，区间为闭区间[起始, 结束]
+	 *
+	 * @return 格式不支持或区间过多时返回null（返回整个文件），没有可满足的区间时返回空列表（返回416）
+	 */
+	static List<long[]> parseRanges(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<long[]>();
+		for (String spec : header.substring(6).split(",")) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long start;
+			long end;
+			try {
+				if (dash == 0) {
+					// 最后N个字节
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, length - suffix);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, dash));
+					end = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (start > end || start >= length) {
+				continue;
+			}
+			ranges.add(new long[] { start, end });
+		}
+		return ranges.size() > MAX_RANGES ? null : ranges;
+	}
+
+	/**
+	 * 发送文件的一段，本地文件且容器支持sendfile时交给容器
+	 *
+	 * @param file
+	 *            本地文件，非本地存储时为null
+	 */
+	private void send(HttpServletRequest req, HttpServletResponse resp, String name, File file, long start, long count)
+			throws IOException {
+		if (file == null) {
+			OutputStream out = resp.getOutputStream();
+			copy(name, start, count, out);
+			out.flush();
+			return;
+		}
+		if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(req.getAttribute("org.apache.tomcat.sendfile.support"))) {
+			req.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+			req.setAttribute("org.apache.tomcat.sendfile.start", start);
+			req.setAttribute("org.apache.tomcat.sendfile.end", start + count);
+			return;
+		}
+		OutputStream out = resp.getOutputStream();
+		transfer(file, start, count, Channels.newChannel(out));
+		out.flush();
+	}
+
+	private void sendMultipart(HttpServletResponse resp, String name, File file, List<long[]> ranges,
+			String contentType, long length) throws IOException {
+		OutputStream out = resp.getOutputStream();
+		WritableByteChannel target = Channels.newChannel(out);
+		for (long[] r : ranges) {
+			out.write(("\r\n--" + BOUNDARY + "\r\nContent-Type: " + contentType + "\r\nContent-Range: bytes " + r[0] + "-"
+					+ r[1] + "/" + length + "\r\n\r\n").getBytes("ISO-8859-1"));
+			if (file == null) {
+				copy(name, r[0], r[1] - r[0] + 1, out);
+			} else {
+				transfer(file, r[0], r[1] - r[0] + 1, target);
+			}
+		}
+		out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+	}
+
+	/**
+	 * transferTo单次可能只传输部分数据，循环直到传完
+	 */
+	private static void transfer(File file, long start, long count, WritableByteChannel target) throws IOException {
+		try (FileChannel in = new FileInputStream(file).getChannel()) {
+			long position = start;
+			long end = start + count;
+			while (position < end) {
+				long n = in.transferTo(position, end - position, target);
+				if (n <= 0) {
+					break;
+				}
+				position += n;
+			}
+		}
+	}
+
+	/**
+	 * 从存储读取一段写到响应流
+	 */
+	private void copy(String name, long start, long count, OutputStream out) throws IOException {
+		byte[] buffer = BufferPool.scratch();
+		try (InputStream in = storage.open(name, start, count)) {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import utils.StringUtils;
+
+/**
+ * 秒传检查：上传前提交整个文件的MD5（hash）和长度（size），服务器已有相同内容时直接完成上传
+ *
+ * 返回 {"status":true,"exists":true} 表示已秒传，exists为false时客户端按分片正常上传
+ */
+@WebServlet(urlPatterns = { "/instantUpload" })
+public class InstantUploadServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	String uploadPath;
+	private ChunkUploadSupport support;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+
+		uploadPath = ChunkUploadSupport.uploadPath(servletContext);
+		try {
+			support = new ChunkUploadSupport(context, uploadPath, ChunkUploadSupport.storage(servletContext));
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/json; charset=utf-8");
+		String fileName = req.getParameter("filename");
+		String hash = req.getParameter("hash");
+		long size = StringUtils.getLong(req.getParameter("size"), -1);
+		String upload = ChunkUploadSupport.uploadId(req, fileName);
+		if (StringUtils.isEmpty(fileName) || upload == null || hash == null || !hash.matches("[0-9a-fA-F]{32}") || size < 0) {
+			resp.getWriter().write("{\"status\":false}");
+			return;
+		}
+		try {
+			boolean exists = support.instantUpload(upload, fileName, hash.toLowerCase(), size);
+			resp.getWriter().write("{\"status\":true,\"exists\":" + exists + ",\"newName\":\"" + fileName + "\"}");
+		} catch (Exception e) {
+			e.printStackTrace();
+			resp.getWriter().write("{\"status\":false}");
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		doGet(req, resp);
+	}
+}
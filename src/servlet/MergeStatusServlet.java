@@ -0,0 +1,56 @@
+package servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import service.sys.impl.MergeQueue;
+import utils.StringUtils;
+
+/**
+ * 后台合并状态查询：合并队列深度、正在合并数，带uploadId或filename参数时返回该上传的合并状态及进度
+ */
+@WebServlet(urlPatterns = { "/mergeStatus" })
+public class MergeStatusServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private MergeQueue mergeQueue;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		mergeQueue = (MergeQueue) context.getBean("mergeQueue");
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/json; charset=utf-8");
+		StringBuilder json = new StringBuilder();
+		json.append("{\"queueDepth\":").append(mergeQueue.getQueueDepth());
+		json.append(",\"activeMerges\":").append(mergeQueue.getActiveCount());
+		json.append(",\"completedMerges\":").append(mergeQueue.getCompletedCount());
+		String fileName = req.getParameter("filename");
+		String upload = ChunkUploadSupport.uploadId(req, StringUtils.isEmpty(fileName) ? null : fileName);
+		if (upload != null) {
+			json.append(ChunkUploadSupport.mergeJson(mergeQueue.get(upload)));
+		}
+		json.append("}");
+		resp.getWriter().write(json.toString());
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		doGet(req, resp);
+	}
+}
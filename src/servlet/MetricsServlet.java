@@ -0,0 +1,262 @@
+package servlet;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import service.sys.impl.MergeQueue;
+import service.sys.impl.UploadSessionCache;
+import utils.BufferPool;
+import utils.LatencyHistogram;
+import utils.UploadMetrics;
+
+/**
+ * 上传指标：以纯文本输出（每行“名称 值”，耗时单位为微秒），同时注册为JMX MBean
+ */
+@WebServlet(urlPatterns = { "/metrics" })
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int RATE_WINDOW = 10;// 速率取最近10秒的平均值
+
+	private UploadSessionCache sessionCache;
+	private MergeQueue mergeQueue;
+	private Metrics metrics;
+	private ObjectName objectName;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		sessionCache = (UploadSessionCache) context.getBean("uploadSessionCache");
+		mergeQueue = (MergeQueue) context.getBean("mergeQueue");
+		metrics = new Metrics();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName("upload:type=UploadMetrics");
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(new StandardMBean(metrics, UploadMetricsMBean.class), objectName);
+		} catch (Exception e) {
+			System.out.println("注册上传指标MBean失败");
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		try {
+			if (objectName != null) {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/plain; charset=utf-8");
+		StringBuilder text = new StringBuilder();
+		line(text, "upload_ingest_bytes_total", metrics.getIngestBytesTotal());
+		line(text, "upload_ingest_bytes_per_second", metrics.getIngestBytesPerSecond());
+		line(text, "upload_chunks_received_total", metrics.getChunksReceived());
+		line(text, "upload_chunks_rejected_total", metrics.getChunksRejected());
+		line(text, "upload_admission_rejected_total", metrics.getAdmissionRejected());
+		line(text, "upload_routed_total", metrics.getRouted());
+		line(text, "upload_reaped_uploads_total", metrics.getReapedUploads());
+		line(text, "upload_reaped_files_total", metrics.getReapedFiles());
+		line(text, "upload_active_chunks", metrics.getActiveChunks());
+		line(text, "upload_active_sessions", metrics.getActiveSessions());
+		line(text, "upload_merge_queue_depth", metrics.getMergeQueueDepth());
+		line(text, "upload_active_merges", mergeQueue.getActiveCount());
+		line(text, "upload_merge_bytes_per_second", metrics.getMergeBytesPerSecond());
+		line(text, "upload_buffer_pool_available", metrics.getBufferPoolAvailable());
+		line(text, "upload_temp_bytes", metrics.getTempBytes());
+		line(text, "upload_temp_files", metrics.getTempFiles());
+		line(text, "upload_chunk_store_bytes", metrics.getChunkStoreBytes());
+		histogram(text, "upload_chunk_parse_micros", UploadMetrics.CHUNK_PARSE);
+		histogram(text, "upload_chunk_write_micros", UploadMetrics.CHUNK_WRITE);
+		histogram(text, "upload_chunk_status_micros", UploadMetrics.CHUNK_STATUS);
+		histogram(text, "upload_status_lookup_micros", UploadMetrics.STATUS_LOOKUP);
+		histogram(text, "upload_db_get_micros", UploadMetrics.DB_GET);
+		histogram(text, "upload_db_flush_micros", UploadMetrics.DB_FLUSH);
+		histogram(text, "upload_merge_micros", UploadMetrics.MERGE);
+		resp.getWriter().write(text.toString());
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		doGet(req, resp);
+	}
+
+	private static void line(StringBuilder text, String name, long value) {
+		text.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * 分位数、最大值、平均值、样本数，以及非空桶的累计数（le为桶上界）
+	 */
+	private static void histogram(StringBuilder text, String name, LatencyHistogram h) {
+		line(text, name + "{quantile=\"0.5\"}", h.getPercentile(0.5));
+		line(text, name + "{quantile=\"0.9\"}", h.getPercentile(0.9));
+		line(text, name + "{quantile=\"0.99\"}", h.getPercentile(0.99));
+		line(text, name + "_max", h.getMax());
+		line(text, name + "_mean", h.getMean());
+		line(text, name + "_count", h.getCount());
+		long[] buckets = h.getBuckets();
+		long cumulative = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			cumulative += buckets[i];
+			if (buckets[i] > 0) {
+				line(text, name + "_bucket{le=\"" + LatencyHistogram.upperBound(i) + "\"}", cumulative);
+			}
+		}
+	}
+
+	/**
+	 * 指标读取，上传目录的占用由写入、合并、清理时增减，不遍历目录
+	 */
+	private class Metrics implements UploadMetricsMBean {
+
+		@Override
+		public long getIngestBytesPerSecond() {
+			return UploadMetrics.INGEST.getRate(RATE_WINDOW);
+		}
+
+		@Override
+		public long getIngestBytesTotal() {
+			return UploadMetrics.INGEST.getTotal();
+		}
+
+		@Override
+		public long getChunksReceived() {
+			return UploadMetrics.CHUNKS.get();
+		}
+
+		@Override
+		public long getChunksRejected() {
+			return UploadMetrics.CHUNKS_REJECTED.get();
+		}
+
+		@Override
+		public long getAdmissionRejected() {
+			return UploadMetrics.ADMISSION_REJECTED.get();
+		}
+
+		@Override
+		public long getRouted() {
+			return UploadMetrics.ROUTED.get();
+		}
+
+		@Override
+		public long getReapedUploads() {
+			return UploadMetrics.REAPED_UPLOADS.get();
+		}
+
+		@Override
+		public long getReapedFiles() {
+			return UploadMetrics.REAPED_FILES.get();
+		}
+
+		@Override
+		public int getActiveChunks() {
+			return UploadMetrics.ACTIVE_CHUNKS.get();
+		}
+
+		@Override
+		public int getActiveSessions() {
+			return sessionCache.size();
+		}
+
+		@Override
+		public long getChunkParseP99() {
+			return UploadMetrics.CHUNK_PARSE.getPercentile(0.99);
+		}
+
+		@Override
+		public long getChunkWriteP50() {
+			return UploadMetrics.CHUNK_WRITE.getPercentile(0.5);
+		}
+
+		@Override
+		public long getChunkWriteP99() {
+			return UploadMetrics.CHUNK_WRITE.getPercentile(0.99);
+		}
+
+		@Override
+		public long getChunkStatusP99() {
+			return UploadMetrics.CHUNK_STATUS.getPercentile(0.99);
+		}
+
+		@Override
+		public long getStatusLookupP99() {
+			return UploadMetrics.STATUS_LOOKUP.getPercentile(0.99);
+		}
+
+		@Override
+		public long getDbFlushP99() {
+			return UploadMetrics.DB_FLUSH.getPercentile(0.99);
+		}
+
+		@Override
+		public long getMergeCount() {
+			return UploadMetrics.MERGE.getCount();
+		}
+
+		@Override
+		public long getMergeP50() {
+			return UploadMetrics.MERGE.getPercentile(0.5);
+		}
+
+		@Override
+		public long getMergeP99() {
+			return UploadMetrics.MERGE.getPercentile(0.99);
+		}
+
+		@Override
+		public long getMergeBytesPerSecond() {
+			return UploadMetrics.MERGED.getRate(RATE_WINDOW);
+		}
+
+		@Override
+		public int getMergeQueueDepth() {
+			return mergeQueue.getQueueDepth();
+		}
+
+		@Override
+		public int getBufferPoolAvailable() {
+			return BufferPool.shared().getAvailable();
+		}
+
+		@Override
+		public long getTempBytes() {
+			return UploadMetrics.TEMP_BYTES.get();
+		}
+
+		@Override
+		public long getTempFiles() {
+			return UploadMetrics.TEMP_FILES.get();
+		}
+
+		@Override
+		public long getChunkStoreBytes() {
+			return UploadMetrics.CHUNK_STORE_BYTES.get();
+		}
+	}
+}
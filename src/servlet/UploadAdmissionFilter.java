@@ -0,0 +1,206 @@
+package servlet;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.ConfigUtil;
+import utils.StringUtils;
+import utils.Throttle;
+import utils.TokenBucket;
+import utils.UploadMetrics;
+
+/**
+ * 上传准入控制
+ *
+ * 限制全局和每个客户端同时进行的上传请求数，超出时立即返回429和Retry-After，不排队；
+ * 准入的请求带上限速器（全局和客户端令牌桶），由上传Servlet在读取请求体时限速。
+ * 异步请求在请求结束（AsyncListener）时释放名额
+ */
+@WebFilter(urlPatterns = { "/uploaderWithContinuinglyTransferring", "/asyncUploader", "/reuseChunk" }, asyncSupported = true)
+public class UploadAdmissionFilter implements Filter {
+
+	/** 限速器在请求中的属性名 */
+	static final String THROTTLE_ATTRIBUTE = "upload.throttle";
+
+	private static final long SWEEP_INTERVAL = 60 * 1000L;// 清理空闲客户端的间隔
+
+	private boolean enabled;
+	private Semaphore global;
+	private int maxPerClient;
+	private TokenBucket globalBucket;
+	private long clientRate;
+	private long burst;
+	private int retryAfter;
+	private String clientHeader;
+	private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+	private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		enabled = ConfigUtil.getBoolean("upload.admission.enabled", true);
+		global = new Semaphore(ConfigUtil.getInt("upload.admission.max_concurrent", 200));
+		maxPerClient = ConfigUtil.getInt("upload.admission.max_per_client", 8);
+		burst = ConfigUtil.getLong("upload.admission.burst_bytes", 4 * 1024 * 1024L);
+		long globalRate = ConfigUtil.getLong("upload.admission.bytes_per_second", 0);
+		globalBucket = globalRate > 0 ? new TokenBucket(globalRate, burst) : null;
+		clientRate = ConfigUtil.getLong("upload.admission.client_bytes_per_second", 0);
+		retryAfter = ConfigUtil.getInt("upload.admission.retry_after", 1);
+		clientHeader = ConfigUtil.get("upload.admission.client_header", "");
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		if (!enabled) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletRequest req = (HttpServletRequest) request;
+		sweep();
+		Client client = client(clientId(req));
+		if (!global.tryAcquire()) {
+			reject((HttpServletResponse) response);
+			return;
+		}
+		if (client.active.incrementAndGet() > maxPerClient) {
+			client.active.decrementAndGet();
+			global.release();
+			reject((HttpServletResponse) response);
+			return;
+		}
+		Admission admission = new Admission(client);
+		req.setAttribute(THROTTLE_ATTRIBUTE, new Throttle(globalBucket, client.bucket));
+		boolean async = false;
+		try {
+			chain.doFilter(request, response);
+			if (req.isAsyncStarted()) {
+				req.getAsyncContext().addListener(admission);
+				async = true;
+			}
+		} finally {
+			if (!async) {
+				admission.release();
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	/**
+	 * 客户端标识，配置了client_header（如反向代理设置的X-Real-IP）时取该请求头，否则取连接地址
+	 */
+	private String clientId(HttpServletRequest req) {
+		if (StringUtils.isNotEmpty(clientHeader)) {
+			String value = req.getHeader(clientHeader);
+			if (StringUtils.isNotEmpty(value)) {
+				return value.trim();
+			}
+		}
+		return req.getRemoteAddr();
+	}
+
+	private Client client(String id) {
+		Client client = clients.get(id);
+		if (client == null) {
+			Client created = new Client(clientRate > 0 ? new TokenBucket(clientRate, burst) : null);
+			client = clients.putIfAbsent(id, created);
+			if (client == null) {
+				client = created;
+			}
+		}
+		client.lastSeen = System.currentTimeMillis();
+		return client;
+	}
+
+	/**
+	 * 按间隔移除没有进行中请求且长时间未出现的客户端。与新请求同时发生时，该请求可能使用已移除的记录，只影响一次计数
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now)) {
+			return;
+		}
+		Iterator<Client> it = clients.values().iterator();
+		while (it.hasNext()) {
+			Client client = it.next();
+			if (client.active.get() == 0 && now - client.lastSeen > SWEEP_INTERVAL) {
+				it.remove();
+			}
+		}
+	}
+
+	private void reject(HttpServletResponse response) throws IOException {
+		UploadMetrics.ADMISSION_REJECTED.incrementAndGet();
+		response.setHeader("Retry-After", String.valueOf(retryAfter));
+		ChunkUploadSupport.writeBusy(response);
+	}
+
+	private static class Client {
+		final AtomicInteger active = new AtomicInteger();
+		final TokenBucket bucket;
+		volatile long lastSeen;
+
+		Client(TokenBucket bucket) {
+			this.bucket = bucket;
+		}
+	}
+
+	/**
+	 * 一次准入，名额只释放一次
+	 */
+	private class Admission implements AsyncListener {
+		private final Client client;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Admission(Client client) {
+			this.client = client;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				client.active.decrementAndGet();
+				global.release();
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			release();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			release();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			release();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+	}
+}
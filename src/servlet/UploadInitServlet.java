@@ -0,0 +1,66 @@
+package servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import utils.StringUtils;
+
+/**
+ * 新建上传：提交文件名（name）、分片数（chunks）及分片大小（chunkSize，不传时为upload.chunk_size），返回服务器分配的上传ID
+ *
+ * 返回 {"status":true,"uploadId":"..."}，之后的分片上传、续传检查、合并状态查询及下载都带上uploadId，
+ * 同名文件可以同时上传互不影响。不带uploadId的旧客户端仍按文件名上传
+ */
+@WebServlet(urlPatterns = { "/initUpload" })
+public class UploadInitServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private ChunkUploadSupport support;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		ServletContext servletContext = config.getServletContext();
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		try {
+			support = new ChunkUploadSupport(context, ChunkUploadSupport.uploadPath(servletContext),
+					ChunkUploadSupport.storage(servletContext));
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/json; charset=utf-8");
+		String name = ChunkUploadSupport.param(req, "name", "X-File-Name");
+		Integer chunks = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(req, "chunks", "X-Chunks"));
+		Long chunkSize = ChunkUploadSupport.toLong(ChunkUploadSupport.param(req, "chunkSize", "X-Chunk-Size"));
+		if (StringUtils.isEmpty(name) || chunks == null || chunks < 1 || (chunkSize != null && chunkSize < 1)) {
+			resp.getWriter().write("{\"status\":false}");
+			return;
+		}
+		try {
+			String uploadId = support.initUpload(name, chunks, chunkSize);
+			resp.getWriter().write("{\"status\":true,\"uploadId\":\"" + uploadId + "\",\"newName\":\"" + name + "\"}");
+		} catch (Exception e) {
+			e.printStackTrace();
+			resp.getWriter().write("{\"status\":false}");
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		doGet(req, resp);
+	}
+}
@@ -0,0 +1,57 @@
+package servlet;
+
+/**
+ * 上传指标的JMX接口，ObjectName为upload:type=UploadMetrics，耗时单位为微秒
+ */
+public interface UploadMetricsMBean {
+
+	long getIngestBytesPerSecond();
+
+	long getIngestBytesTotal();
+
+	long getChunksReceived();
+
+	long getChunksRejected();
+
+	long getAdmissionRejected();
+
+	long getRouted();
+
+	long getReapedUploads();
+
+	long getReapedFiles();
+
+	int getActiveChunks();
+
+	int getActiveSessions();
+
+	long getChunkParseP99();
+
+	long getChunkWriteP50();
+
+	long getChunkWriteP99();
+
+	long getChunkStatusP99();
+
+	long getStatusLookupP99();
+
+	long getDbFlushP99();
+
+	long getMergeCount();
+
+	long getMergeP50();
+
+	long getMergeP99();
+
+	long getMergeBytesPerSecond();
+
+	int getMergeQueueDepth();
+
+	int getBufferPoolAvailable();
+
+	long getTempBytes();
+
+	long getTempFiles();
+
+	long getChunkStoreBytes();
+}
@@ -0,0 +1,339 @@
+package servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import model.sys.TfileUploadStatus;
+import service.sys.FileUploadStatusServiceI;
+import service.sys.impl.UploadSessionCache;
+import utils.ChunkBitmap;
+import utils.ConfigUtil;
+import utils.PositionalChunkWriter;
+import utils.TokenBucket;
+import utils.UploadLayout;
+import utils.UploadMetrics;
+import utils.UploadStorageI;
+
+/**
+ * 过期上传清理
+ *
+ * 定时执行两步：按最后活动时间分批删除过期的上传状态，未完成的同时删除存储中的分片，启用分片仓库时释放其引用；
+ * 再分页扫描上传目录，删除过期且已没有上传状态的分片文件和未完成文件（其他节点清理的上传、升级前遗留的文件）。
+ * 目录及其分层子目录（见UploadLayout）用DirectoryStream逐层读取，每次只处理upload.reaper.scan_page个文件，
+ * 下次从上次的位置继续。
+ * 文件操作按upload.reaper.io_per_second限速，不与正在进行的上传争抢磁盘。
+ * 启动时还统计一次已有的分片文件、未完成文件及分片仓库的占用，作为上传指标的初始值，之后由各处写入和删除时增减
+ */
+@WebListener
+public class UploadReaper implements ServletContextListener {
+
+	// 只处理上传ID为32位十六进制（/initUpload分配或由文件名生成）的文件，不会误删合并后的文件
+	private static final Pattern CHUNK_FILE = Pattern.compile("\\d+_([0-9a-f]{32})");
+	private static final Pattern PARTIAL_FILE = Pattern
+			.compile("([0-9a-f]{32})" + Pattern.quote(PositionalChunkWriter.PARTIAL_SUFFIX));
+
+	private FileUploadStatusServiceI statusService;
+	private UploadSessionCache sessionCache;
+	private UploadStorageI storage;
+	private ChunkStore chunkStore;// 分片仓库，未启用时为null
+	private File uploadDir;
+	private TokenBucket ioLimit;
+	private ScheduledExecutorService timer;
+
+	private final long ttl = ConfigUtil.getLong("upload.reaper.ttl", 24 * 60 * 60 * 1000L);
+	private final int batchSize = ConfigUtil.getInt("upload.reaper.batch_size", 500);
+	private final int scanPage = ConfigUtil.getInt("upload.reaper.scan_page", 1000);
+
+	// 进行中的目录扫描，栈底为上传目录，之上依次为两级分层子目录
+	private final Deque<DirectoryStream<Path>> scan = new ArrayDeque<DirectoryStream<Path>>();
+	private final Deque<Iterator<Path>> scanPosition = new ArrayDeque<Iterator<Path>>();
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+		ServletContext servletContext = sce.getServletContext();
+		// 在开始接收上传之前统计，不会与写入和删除时的增减重复
+		countFiles(new File(ChunkUploadSupport.uploadPath(servletContext)));
+		if (!ConfigUtil.getBoolean("upload.reaper.enabled", true)) {
+			return;
+		}
+		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		statusService = (FileUploadStatusServiceI) context.getBean("fileUploadStatusServiceImpl");
+		sessionCache = (UploadSessionCache) context.getBean("uploadSessionCache");
+		try {
+			storage = ChunkUploadSupport.storage(servletContext);
+		} catch (IOException e) {
+			System.out.println("过期上传清理未启动：" + e.getMessage());
+			return;
+		}
+		uploadDir = new File(ChunkUploadSupport.uploadPath(servletContext));
+		chunkStore = ChunkUploadSupport.chunkStore(context, storage, uploadDir);
+		long ioPerSecond = ConfigUtil.getLong("upload.reaper.io_per_second", 200);
+		ioLimit = new TokenBucket(ioPerSecond, ioPerSecond);
+		long interval = ConfigUtil.getLong("upload.reaper.interval", 60 * 1000L);
+		timer = Executors.newSingleThreadScheduledExecutor();
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					expireUploads();
+					if (chunkStore != null) {
+						chunkStore.collect();
+					}
+					scanDirectory();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+		if (timer == null) {
+			return;
+		}
+		timer.shutdownNow();
+		try {
+			timer.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeScan();
+	}
+
+	/**
+	 * 按(lastActivity, objId)分批取出过期的上传，本节点仍在上传的跳过
+	 */
+	private void expireUploads() throws InterruptedException {
+		long before = System.currentTimeMillis() - ttl;
+		long afterActivity = -1;
+		String afterId = "";
+		while (true) {
+			List<TfileUploadStatus> page = statusService.findExpired(before, afterActivity, afterId, batchSize);
+			if (page.isEmpty()) {
+				return;
+			}
+			Map<String, TfileUploadStatus> candidates = new HashMap<String, TfileUploadStatus>();
+			for (TfileUploadStatus t : page) {
+				if (!sessionCache.isActive(t.getObjId())) {
+					candidates.put(t.getObjId(), t);
+				}
+			}
+			if (!candidates.isEmpty()) {
+				for (String upload : statusService.removeExpired(new ArrayList<String>(candidates.keySet()), before)) {
+					sessionCache.discard(upload);
+					abort(candidates.get(upload));
+					UploadMetrics.REAPED_UPLOADS.incrementAndGet();
+				}
+			}
+			if (page.size() < batchSize) {
+				return;
+			}
+			TfileUploadStatus last = page.get(page.size() - 1);
+			afterActivity = last.getLastActivity();
+			afterId = last.getObjId();
+		}
+	}
+
+	/**
+	 * 未完成的上传删除存储中的分片，已完成的只删除状态，合并后的文件保留。
+	 * 分片仓库的引用都释放，合并结束时释放失败的也在这里补上
+	 */
+	private void abort(TfileUploadStatus t) throws InterruptedException {
+		if (chunkStore != null) {
+			try {
+				chunkStore.release(t.getObjId());
+			} catch (RuntimeException e) {
+				System.out.println("释放过期上传的仓库分片引用失败：" + t.getObjId());
+				e.printStackTrace();
+			}
+		}
+		int chunks = t.getChunks();
+		if (chunks > 0 && ChunkBitmap.valueOf(t.getChunkBitmap(), chunks).isComplete()) {
+			return;
+		}
+		pause(chunks + 1);
+		try {
+			storage.abort(t.getObjId(), chunks);
+		} catch (IOException e) {
+			System.out.println("删除过期上传的分片失败：" + t.getObjId());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 从上次的位置继续扫描上传目录，删除过期且已没有上传状态的分片文件和未完成文件
+	 */
+	private void scanDirectory() throws InterruptedException {
+		long before = System.currentTimeMillis() - ttl;
+		Map<String, Boolean> live = new HashMap<String, Boolean>();// 本页已查过的上传
+		try {
+			if (scan.isEmpty()) {
+				openDir(uploadDir.toPath());
+			}
+			for (int i = 0; i < scanPage; i++) {
+				Path path = nextFile();
+				if (path == null) {
+					// 本轮扫描结束，下次从头开始
+					return;
+				}
+				String upload = uploadOf(path.getFileName().toString());
+				if (upload == null) {
+					continue;
+				}
+				pause(1);
+				if (!Files.isRegularFile(path) || Files.getLastModifiedTime(path).toMillis() >= before) {
+					continue;
+				}
+				Boolean exists = live.get(upload);
+				if (exists == null) {
+					exists = sessionCache.isActive(upload) || statusService.getById(upload) != null;
+					live.put(upload, exists);
+				}
+				if (!exists) {
+					pause(1);
+					if (PositionalChunkWriter.delete(path.toFile())) {
+						UploadMetrics.REAPED_FILES.incrementAndGet();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// 下次重新扫描
+			closeScan();
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// DirectoryStream的迭代器以DirectoryIteratorException抛出IO错误
+			closeScan();
+			throw e;
+		}
+	}
+
+	/**
+	 * 统计上传目录中的分片文件、未完成文件，以及分片仓库（.chunks）中的分片
+	 */
+	private static void countFiles(File dir) {
+		long[] temp = new long[2];// 字节数、文件数
+		count(dir.toPath(), 0, true, temp);
+		UploadMetrics.tempChanged(temp[1], temp[0]);
+		File storeDir = new File(dir, ".chunks");
+		if (storeDir.isDirectory()) {
+			long[] store = new long[2];
+			count(storeDir.toPath(), 0, false, store);
+			UploadMetrics.CHUNK_STORE_BYTES.addAndGet(store[0]);
+		}
+	}
+
+	/**
+	 * 累加目录及其分层子目录（见UploadLayout）中文件的字节数和文件数
+	 *
+	 * @param tempOnly
+	 *            只统计分片文件和未完成文件，否则统计仓库分片（不含写入中的临时文件）
+	 */
+	private static void count(Path dir, int depth, boolean tempOnly, long[] totals) {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				if (depth < 2 && UploadLayout.isShard(name) && Files.isDirectory(path)) {
+					count(path, depth + 1, tempOnly, totals);
+				} else if (tempOnly ? uploadOf(name) != null : !name.endsWith(".tmp")) {
+					if (Files.isRegularFile(path)) {
+						totals[0] += Files.size(path);
+						totals[1]++;
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// DirectoryStream的迭代器以DirectoryIteratorException抛出IO错误
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 分片文件或未完成文件对应的上传ID，其他文件返回null
+	 */
+	private static String uploadOf(String fileName) {
+		Matcher m = CHUNK_FILE.matcher(fileName);
+		if (m.matches()) {
+			return m.group(1);
+		}
+		m = PARTIAL_FILE.matcher(fileName);
+		return m.matches() ? m.group(1) : null;
+	}
+
+	/**
+	 * 深度优先取下一个文件，进入分层子目录，读完的目录随即关闭
+	 *
+	 * @return 扫描结束时返回null
+	 */
+	private Path nextFile() throws IOException {
+		while (!scanPosition.isEmpty()) {
+			Iterator<Path> position = scanPosition.peek();
+			if (!position.hasNext()) {
+				scanPosition.pop();
+				scan.pop().close();
+				continue;
+			}
+			Path path = position.next();
+			if (scan.size() <= 2 && UploadLayout.isShard(path.getFileName().toString()) && Files.isDirectory(path)) {
+				openDir(path);
+				continue;
+			}
+			return path;
+		}
+		return null;
+	}
+
+	private void openDir(Path dir) throws IOException {
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		scan.push(stream);
+		scanPosition.push(stream.iterator());
+	}
+
+	private void closeScan() {
+		while (!scan.isEmpty()) {
+			try {
+				scan.pop().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		scanPosition.clear();
+	}
+
+	/**
+	 * 预占n次文件操作，超过限速时等待
+	 */
+	private void pause(long n) throws InterruptedException {
+		long nanos = ioLimit.reserve(n);
+		if (nanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.ConfigUtil;
+import utils.ConsistentHashRing;
+import utils.StringUtils;
+import utils.UploadMetrics;
+
+/**
+ * 集群部署时按文件名路由上传请求
+ *
+ * 同一文件的分片上传、状态查询、秒传、合并状态和下载都由一致性哈希选出的同一节点处理，
+ * 上传会话、分片文件和合并都在该节点本地完成，节点之间不共享状态，增加节点吞吐量按比例增加。
+ * 请求到达其他节点时返回307重定向到所属节点，307保留请求方法和请求体，客户端不用改动请求。
+ * 未配置upload.cluster.nodes时不路由
+ *
+ * 分片信息只放在multipart表单字段中的请求无法在读取请求体前得到文件名，只能在本节点处理，
+ * 集群部署时name须放在URL参数或X-File-Name请求头中
+ */
+@WebFilter(urlPatterns = { "/uploaderWithContinuinglyTransferring", "/asyncUploader", "/reuseChunk",
+		"/ckeckFileServlet", "/instantUpload", "/mergeStatus", "/download" }, asyncSupported = true)
+public class UploadRoutingFilter implements Filter {
+
+	private static final int STATUS_TEMPORARY_REDIRECT = 307;
+
+	private ConsistentHashRing ring;// 未启用时为null
+	private String self;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		List<String> nodes = new ArrayList<String>();
+		for (String node : ConfigUtil.get("upload.cluster.nodes", "").split(",")) {
+			node = trimSlash(node.trim());
+			if (!node.isEmpty()) {
+				nodes.add(node);
+			}
+		}
+		if (nodes.isEmpty()) {
+			return;
+		}
+		self = trimSlash(ConfigUtil.get("upload.cluster.self", ""));
+		if (!nodes.contains(self)) {
+			throw new ServletException("upload.cluster.self必须是upload.cluster.nodes中的一个：" + self);
+		}
+		ring = new ConsistentHashRing(nodes, ConfigUtil.getInt("upload.cluster.virtual_nodes", 160));
+		System.out.println("上传集群节点：" + nodes + "，本节点：" + self);
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		if (ring == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletRequest req = (HttpServletRequest) request;
+		String key = routingKey(req);
+		String owner = key == null ? self : ring.node(key);
+		if (self.equals(owner)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		UploadMetrics.ROUTED.incrementAndGet();
+		String query = req.getQueryString();
+		HttpServletResponse resp = (HttpServletResponse) response;
+		resp.setStatus(STATUS_TEMPORARY_REDIRECT);
+		resp.setHeader("Location", owner + req.getServletPath() + (query == null ? "" : "?" + query));
+		resp.setHeader("Content-Length", "0");
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	/**
+	 * 上传ID：与各接口使用的键一致，带uploadId时直接使用，否则由文件名（上传接口为name参数或X-File-Name请求头，
+	 * 查询和下载接口为filename参数）生成。按上传ID发起的上传，下载时也须带上uploadId
+	 */
+	private static String routingKey(HttpServletRequest req) {
+		String name = req.getParameter("filename");
+		if (StringUtils.isEmpty(name)) {
+			name = ChunkUploadSupport.param(req, "name", "X-File-Name");
+		}
+		return ChunkUploadSupport.uploadId(req, StringUtils.isEmpty(name) ? null : name);
+	}
+
+	private static String trimSlash(String url) {
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+}
@@ -1,10 +1,8 @@
 package servlet;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -14,15 +12,18 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import model.sys.TfileUploadStatus;
-import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
-import service.sys.FileUploadStatusServiceI;
+import utils.ChunkChecksum;
+import utils.MergeProgress;
+import utils.PositionalChunkWriter;
+import utils.UploadMetrics;
 
 
 @WebServlet(urlPatterns = { "/uploaderWithContinuinglyTransferring" })
@@ -30,103 +31,136 @@ public class UploaderServletWithContinuinglyTransferring extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
-	private FileUploadStatusServiceI statusService;
-	String repositoryPath;
 	String uploadPath;
+	private ChunkUploadSupport support;
 
 	@Override
 	public void init(ServletConfig config) throws ServletException {
 		ServletContext servletContext = config.getServletContext();
 		WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(servletContext);
-		statusService = (FileUploadStatusServiceI) context.getBean("fileUploadStatusServiceImpl");
 
-		repositoryPath = FileUtils.getTempDirectoryPath();
-		System.out.println("临时目录：" + repositoryPath);
-		uploadPath = config.getServletContext().getRealPath("datas/uploader");
+		uploadPath = ChunkUploadSupport.uploadPath(servletContext);
 		System.out.println("目录：" + uploadPath);
-		File up = new File(uploadPath);
-		if (!up.exists()) {
-			up.mkdir();
+		try {
+			support = new ChunkUploadSupport(context, uploadPath, ChunkUploadSupport.storage(servletContext));
+		} catch (IOException e) {
+			throw new ServletException(e);
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		long start = System.nanoTime();
 		response.setCharacterEncoding("UTF-8");
-		Integer schunk = null;// 分割块数
-		Integer schunks = null;// 总分割数
-		String name = null;// 文件名
-		BufferedOutputStream outputStream = null;
+		// 分片信息可以放在请求头或URL参数中，表单字段只要在文件内容之前提交也可以
+		Integer schunk = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(request, "chunk", "X-Chunk"));// 分割块数
+		Integer schunks = ChunkUploadSupport.toInteger(ChunkUploadSupport.param(request, "chunks", "X-Chunks"));// 总分割数
+		String newFileName = ChunkUploadSupport.param(request, "name", "X-File-Name");// 文件名
+		Long chunkSize = ChunkUploadSupport.toLong(ChunkUploadSupport.param(request, "chunkSize", "X-Chunk-Size"));// 分片大小
+		String chunkMd5 = ChunkUploadSupport.param(request, "chunkMd5", "X-Chunk-Md5");// 分片MD5
+		String chunkCrc32 = ChunkUploadSupport.param(request, "chunkCrc32", "X-Chunk-Crc32");// 分片CRC32
+		String uploadId = ChunkUploadSupport.param(request, "uploadId", "X-Upload-Id");// 上传ID
+		String uploadKey = null;// 校验后的上传ID
+		long fileLength = -1;// 直接写入模式下最后一片写完后的文件长度
+		boolean writing = false;// 已申请并发名额、分片尚未记录
 		if (ServletFileUpload.isMultipartContent(request)) {
 			try {
-				DiskFileItemFactory factory = new DiskFileItemFactory();
-				factory.setSizeThreshold(1024);
-				factory.setRepository(new File(repositoryPath));// 设置临时目录
-				ServletFileUpload upload = new ServletFileUpload(factory);
+				// 使用流式API，文件内容直接从请求流写入最终位置，不经过临时目录
+				ServletFileUpload upload = new ServletFileUpload();
 				upload.setHeaderEncoding("UTF-8");
-				upload.setSizeMax(5 * 1024 * 1024 * 1024);// 设置附近大小
-				List<FileItem> items = upload.parseRequest(request);
-				// 生成新文件名
-
-				String newFileName = null;
-				for (FileItem item : items) {
-					if (!item.isFormField()) {// 如果是文件类型
-						name = newFileName;// 获得文件名
-						if (name != null) {
-							String nFname = newFileName;
-							if (schunk != null) {
-								nFname = schunk + "_" + name;
+				upload.setSizeMax(5L * 1024 * 1024 * 1024);// 设置附近大小，int运算会溢出
+				FileItemIterator iter = upload.getItemIterator(request);
+				while (iter.hasNext()) {
+					FileItemStream item = iter.next();
+					InputStream in = item.openStream();
+					try {
+						if (!item.isFormField()) {// 如果是文件类型
+							uploadKey = ChunkUploadSupport.uploadId(uploadId, newFileName);
+							newFileName = support.fileName(uploadKey, newFileName);
+							if (newFileName == null) {
+								throw new FileUploadException("name或uploadId参数必须在文件内容之前提交");
+							}
+							if (!support.beginChunk(uploadKey, newFileName, schunk, schunks, chunkSize)) {
+								ChunkUploadSupport.writeBusy(response);
+								return;
+							}
+							writing = true;
+							// 缓冲区池用完时等待，超时按繁忙处理
+							ByteBuffer buffer = support.acquireBuffer();
+							if (buffer == null) {
+								ChunkUploadSupport.writeBusy(response);
+								return;
+							}
+							// 按准入时分配的限速器读取，超速时在当前线程等待
+							in = ChunkUploadSupport.throttle(request).wrap(in);
+							// 写盘的同时计算分片校验值
+							ChunkChecksum checksum = ChunkChecksum.of(chunkMd5, chunkCrc32);
+							if (checksum != null) {
+								in = checksum.wrap(in);
+							}
+							UploadMetrics.CHUNK_PARSE.recordSince(start);
+							long writeStart = System.nanoTime();
+							long offset = 0;
+							long written;
+							try {
+								if (support.isDirect(schunk)) {
+									// 按偏移量直接写入预分配的未完成文件，最多写入一个分片大小，不会越过本分片的区域
+									offset = support.offset(schunk, chunkSize);
+									written = PositionalChunkWriter.write(support.partialFile(uploadKey),
+											new BoundedInputStream(in, support.chunkLimit(schunk, chunkSize)), offset,
+											schunks * support.chunkSize(chunkSize), buffer);
+									if (in.read() != -1) {
+										throw new IOException("分片超出分片大小：" + schunk + "_" + uploadKey);
+									}
+									support.checkLength(schunk, schunks, chunkSize, written);
+									fileLength = offset + written;
+								} else {
+									written = PositionalChunkWriter.writeFile(support.chunkFile(uploadKey, newFileName, schunk), in,
+											buffer, schunk != null);
+								}
+							} finally {
+								support.releaseBuffer(buffer);
+							}
+							UploadMetrics.CHUNK_WRITE.recordSince(writeStart);
+							UploadMetrics.INGEST.mark(written);
+							if (checksum != null && !checksum.matches()) {
+								writing = false;
+								support.discardChunk(uploadKey, newFileName, schunk);
+								ChunkUploadSupport.writeChecksumMismatch(response);
+								return;
+							}
+							support.storeChunk(uploadKey, newFileName, schunk, checksum, written, offset);
+						} else {
+							// 判断是否带分割信息
+							String value = Streams.asString(in, "UTF-8");
+							if (item.getFieldName().equals("chunk")) {
+								schunk = Integer.parseInt(value);
+							}
+							if (item.getFieldName().equals("chunks")) {
+								schunks = Integer.parseInt(value);
+							}
+							if (item.getFieldName().equals("chunkSize")) {
+								chunkSize = Long.parseLong(value);
+							}
+							if (item.getFieldName().equals("name")) {
+								newFileName = value;
+							}
+							if (item.getFieldName().equals("uploadId")) {
+								uploadId = value;
+							}
+							if (item.getFieldName().equals("chunkMd5")) {
+								chunkMd5 = value;
+							}
+							if (item.getFieldName().equals("chunkCrc32")) {
+								chunkCrc32 = value;
 							}
-							File savedFile = new File(uploadPath, nFname);
-							item.write(savedFile);
-						}
-					} else {
-						// 判断是否带分割信息
-						if (item.getFieldName().equals("chunk")) {
-							schunk = Integer.parseInt(item.getString());
-							//System.out.println(schunk);
-						}
-						if (item.getFieldName().equals("chunks")) {
-							schunks = Integer.parseInt(item.getString());
-						}
-
-						if (item.getFieldName().equals("name")) {
-							newFileName = new String(item.getString());
-
 						}
-
-					}
-
-				}
-				//System.out.println(schunk + "/" + schunks);
-				if (schunk != null && schunk == 1) {
-					TfileUploadStatus file = statusService.get(newFileName);
-					if (file != null) {
-						statusService.updateChunk(newFileName, schunk);
-					} else {
-						statusService.add(newFileName, schunk, schunks);
-					}
-
-				} else {
-					TfileUploadStatus file = statusService.get(newFileName);
-					if (file != null) {
-						statusService.updateChunk(newFileName, schunk);
-					}
-				}
-				if (schunk != null && schunk.intValue() == schunks.intValue()) {
-					outputStream = new BufferedOutputStream(new FileOutputStream(new File(uploadPath, newFileName)));
-					// 遍历文件合并
-					for (int i = 1; i <= schunks; i++) {
-						//System.out.println("文件合并:" + i + "/" + schunks);
-						File tempFile = new File(uploadPath, i + "_" + name);
-						byte[] bytes = FileUtils.readFileToByteArray(tempFile);
-						outputStream.write(bytes);
-						outputStream.flush();
-						tempFile.delete();
+					} finally {
+						in.close();
 					}
-					outputStream.flush();
 				}
-				response.getWriter().write("{\"status\":true,\"newName\":\"" + newFileName + "\"}");
+				writing = false;
+				MergeProgress merge = support.chunkReceived(uploadKey, newFileName, schunk, schunks, fileLength);
+				ChunkUploadSupport.writeSuccess(response, newFileName, merge);
 			} catch (FileUploadException e) {
 				e.printStackTrace();
 				response.getWriter().write("{\"status\":false}");
@@ -134,11 +168,8 @@ public class UploaderServletWithContinuinglyTransferring extends HttpServlet {
 				e.printStackTrace();
 				response.getWriter().write("{\"status\":false}");
 			} finally {
-				try {
-					if (outputStream != null)
-						outputStream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+				if (writing) {
+					support.abortChunk(uploadKey, schunk);
 				}
 			}
 		}
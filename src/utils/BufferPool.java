@@ -0,0 +1,111 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 直接内存缓冲区池
+ *
+ * 缓冲区数量和大小固定，按需创建后循环使用，堆外内存上限为 upload.buffer_pool.size * upload.buffer_pool.buffer_size。
+ * 缓冲区用完时申请方限时等待归还或不等待，形成反压；不提供无限等待，避免上传与合并互相占满
+ */
+public class BufferPool {
+
+	private static final BufferPool SHARED = new BufferPool(ConfigUtil.getInt("upload.buffer_pool.size", 512),
+			ConfigUtil.getInt("upload.buffer_pool.buffer_size", 128 * 1024));
+
+	private static final int SCRATCH_SIZE = 8192;
+
+	/**
+	 * 每个线程一个堆内中转数组：InputStream只能读入byte[]，读出后再放入直接缓冲区
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH_SIZE];
+		}
+	};
+
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Semaphore permits;
+	private final int capacity;
+	private final int bufferSize;
+
+	public BufferPool(int capacity, int bufferSize) {
+		this.capacity = capacity;
+		this.bufferSize = bufferSize;
+		this.permits = new Semaphore(capacity);
+	}
+
+	/**
+	 * 分片接收和合并共用的缓冲区池
+	 */
+	public static BufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * 申请缓冲区，没有空闲缓冲区时等待
+	 *
+	 * @return 超时仍没有空闲缓冲区时返回null
+	 */
+	public ByteBuffer acquire(long timeout) throws InterruptedException {
+		if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+			return null;
+		}
+		return take();
+	}
+
+	/**
+	 * 申请缓冲区，不等待
+	 *
+	 * @return 没有空闲缓冲区时返回null
+	 */
+	public ByteBuffer tryAcquire() {
+		if (!permits.tryAcquire()) {
+			return null;
+		}
+		return take();
+	}
+
+	/**
+	 * 归还缓冲区，每个缓冲区只能归还一次
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		buffer.clear();
+		free.offer(buffer);
+		permits.release();
+	}
+
+	private ByteBuffer take() {
+		ByteBuffer buffer = free.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * 当前线程的中转数组，只能在单次调用内使用，不能跨线程保存
+	 */
+	public static byte[] scratch() {
+		return SCRATCH.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * 可立即申请的缓冲区数
+	 */
+	public int getAvailable() {
+		return permits.availablePermits();
+	}
+}
@@ -0,0 +1,95 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 分片接收位图，分片序号从1开始，第n片对应第n-1位
+ *
+ * 非线程安全，由调用方加锁
+ */
+public class ChunkBitmap {
+
+	private final BitSet bits;
+	private final int chunks;
+
+	public ChunkBitmap(int chunks) {
+		this(new BitSet(chunks), chunks);
+	}
+
+	private ChunkBitmap(BitSet bits, int chunks) {
+		this.bits = bits;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * 从数据库中保存的字节恢复位图
+	 */
+	public static ChunkBitmap valueOf(byte[] bytes, int chunks) {
+		if (bytes == null) {
+			return new ChunkBitmap(chunks);
+		}
+		return new ChunkBitmap(BitSet.valueOf(bytes), chunks);
+	}
+
+	/**
+	 * 标记分片已接收
+	 *
+	 * @return 该分片此前未接收时返回true
+	 */
+	public boolean set(int chunk) {
+		if (chunk < 1 || chunk > chunks) {
+			throw new IllegalArgumentException("分片序号超出范围：" + chunk + "/" + chunks);
+		}
+		if (bits.get(chunk - 1)) {
+			return false;
+		}
+		bits.set(chunk - 1);
+		return true;
+	}
+
+	public boolean isSet(int chunk) {
+		return bits.get(chunk - 1);
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * 已接收分片数
+	 */
+	public int received() {
+		return bits.cardinality();
+	}
+
+	public boolean isComplete() {
+		return bits.nextClearBit(0) >= chunks;
+	}
+
+	/**
+	 * 第一个未接收的分片，全部接收时返回chunks + 1
+	 */
+	public int firstMissing() {
+		return Math.min(bits.nextClearBit(0), chunks) + 1;
+	}
+
+	/**
+	 * 未接收的分片序号
+	 */
+	public List<Integer> missing() {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = bits.nextClearBit(0); i < chunks; i = bits.nextClearBit(i + 1)) {
+			list.add(i + 1);
+		}
+		return list;
+	}
+
+	/**
+	 * 紧凑字节形式，每个分片占1位，用于持久化
+	 */
+	public byte[] toByteArray() {
+		return bits.toByteArray();
+	}
+}
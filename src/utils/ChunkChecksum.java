@@ -0,0 +1,104 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * 分片校验：客户端随分片提交MD5或CRC32，服务器在写盘的同时计算，不需要再读一遍分片
+ */
+public class ChunkChecksum {
+
+	private final String expectedMd5;
+	private final String expectedCrc32;
+	private final MessageDigest md5;
+	private final CRC32 crc32;
+
+	private ChunkChecksum(String expectedMd5, String expectedCrc32) {
+		this.expectedMd5 = expectedMd5;
+		this.expectedCrc32 = expectedCrc32;
+		this.md5 = expectedMd5 != null ? DigestUtil.md5() : null;
+		this.crc32 = expectedCrc32 != null ? new CRC32() : null;
+	}
+
+	/**
+	 * 根据客户端提交的校验值创建，两者都为空时返回null，表示不校验
+	 *
+	 * @param md5
+	 *            十六进制MD5
+	 * @param crc32
+	 *            十六进制CRC32
+	 */
+	public static ChunkChecksum of(String md5, String crc32) {
+		if (StringUtils.isEmpty(md5) && StringUtils.isEmpty(crc32)) {
+			return null;
+		}
+		return new ChunkChecksum(StringUtils.isEmpty(md5) ? null : md5.trim().toLowerCase(),
+				StringUtils.isEmpty(crc32) ? null : crc32.trim());
+	}
+
+	public void update(byte[] b, int off, int len) {
+		if (md5 != null) {
+			md5.update(b, off, len);
+		}
+		if (crc32 != null) {
+			crc32.update(b, off, len);
+		}
+	}
+
+	/**
+	 * 包装输入流，读取的同时计算校验值
+	 */
+	public InputStream wrap(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1) {
+					update(new byte[] { (byte) b }, 0, 1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					update(b, off, n);
+				}
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				throw new IOException("校验中的分片不支持skip");
+			}
+		};
+	}
+
+	/**
+	 * 客户端提交的MD5，校验通过后可作为分片内容的地址，没有提交MD5时返回null
+	 */
+	public String getMd5() {
+		return expectedMd5;
+	}
+
+	/**
+	 * 分片读完后调用，校验值与客户端提交的一致时返回true
+	 */
+	public boolean matches() {
+		if (md5 != null && !expectedMd5.equals(DigestUtil.toHex(md5.digest()))) {
+			return false;
+		}
+		if (crc32 != null) {
+			try {
+				return Long.parseLong(expectedCrc32, 16) == crc32.getValue();
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
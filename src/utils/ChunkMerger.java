@@ -0,0 +1,144 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * 分片文件合并工具类
+ *
+ * 合并方式由upload.merge.strategy配置（见MergeStrategyI），默认使用FileChannel.transferTo零拷贝追加
+ */
+public class ChunkMerger {
+
+	private static final long MAP_WINDOW = 64 * 1024 * 1024L;// 计算摘要时每次映射的长度
+
+	private static final MergeStrategyI STRATEGY = strategy(ConfigUtil.get("upload.merge.strategy", "transferTo"));
+
+	private ChunkMerger() {
+	}
+
+	/**
+	 * 按顺序将分片合并到目标文件，数据落盘后删除分片
+	 *
+	 * @param target
+	 *            合并后的文件
+	 * @param parts
+	 *            按序排列的分片文件
+	 * @return 合并结果
+	 * @throws IOException
+	 */
+	public static MergeResult merge(File target, List<File> parts) throws IOException {
+		return merge(target, parts, null);
+	}
+
+	/**
+	 * 按顺序将分片追加到目标文件，并记录合并进度
+	 *
+	 * @param progress
+	 *            合并进度，可以为null
+	 */
+	public static MergeResult merge(File target, List<File> parts, MergeProgress progress) throws IOException {
+		return merge(target, parts, progress, null);
+	}
+
+	/**
+	 * 按顺序将分片追加到目标文件，合并的同时计算整个文件的摘要，省去合并后再读一遍文件。
+	 * 先合并到同目录下的临时文件再原子改名为目标文件：目标文件可能是秒传建立的硬链接，原地重写会改掉其他文件
+	 *
+	 * @param digest
+	 *            摘要，可以为null，按分片顺序更新
+	 */
+	public static MergeResult merge(File target, List<File> parts, MergeProgress progress, MessageDigest digest)
+			throws IOException {
+		long start = System.nanoTime();
+		if (progress != null) {
+			long size = 0;
+			for (File part : parts) {
+				size += part.length();
+			}
+			progress.start(size);
+		}
+		File tmp = File.createTempFile(target.getName() + ".merge", ".tmp", target.getParentFile());
+		long total;
+		try {
+			total = STRATEGY.merge(tmp, parts, progress, digest);
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp.toPath());
+		}
+		for (File part : parts) {
+			try {
+				PositionalChunkWriter.delete(part);
+			} catch (IOException e) {
+				System.out.println("删除已合并的分片失败：" + part.getName());
+			}
+		}
+		MergeResult result = new MergeResult(total, System.nanoTime() - start);
+		System.out.println("文件合并完成：" + target.getName() + "，" + result);
+		return result;
+	}
+
+	/**
+	 * 按名称获取合并策略：stream、transferTo、mmap，未知名称使用transferTo
+	 */
+	public static MergeStrategyI strategy(String name) {
+		if ("stream".equals(name)) {
+			return new StreamMergeStrategy();
+		}
+		if ("mmap".equals(name)) {
+			return new MmapMergeStrategy();
+		}
+		return new TransferToMergeStrategy();
+	}
+
+	/**
+	 * 按窗口映射文件并更新摘要
+	 */
+	static void digest(FileChannel in, long size, MessageDigest digest) throws IOException {
+		for (long mapped = 0; mapped < size; mapped += MAP_WINDOW) {
+			digest.update(in.map(FileChannel.MapMode.READ_ONLY, mapped, Math.min(MAP_WINDOW, size - mapped)));
+		}
+	}
+
+	/**
+	 * 合并结果：字节数、耗时及速率
+	 */
+	public static class MergeResult {
+		private final long bytes;
+		private final long nanos;
+
+		public MergeResult(long bytes, long nanos) {
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getMillis() {
+			return nanos / 1000000L;
+		}
+
+		/**
+		 * 合并速率，单位：字节/秒
+		 */
+		public long getBytesPerSecond() {
+			if (nanos <= 0) {
+				return bytes;
+			}
+			return (long) (bytes * 1000000000D / nanos);
+		}
+
+		@Override
+		public String toString() {
+			return bytes + " bytes, " + getMillis() + " ms, " + getBytesPerSecond() / 1024 + " KB/s";
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * 读取classpath下config.properties的工具类，供Servlet等非Spring管理的类使用
+ */
+public class ConfigUtil {
+
+	private static final Properties props = new Properties();
+
+	static {
+		InputStream in = ConfigUtil.class.getClassLoader().getResourceAsStream("config.properties");
+		if (in != null) {
+			try {
+				props.load(in);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private ConfigUtil() {
+	}
+
+	public static String get(String key) {
+		return props.getProperty(key);
+	}
+
+	public static String get(String key, String defaultValue) {
+		String value = props.getProperty(key);
+		return StringUtils.isEmpty(value) ? defaultValue : value.trim();
+	}
+
+	public static int getInt(String key, int defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	public static long getLong(String key, long defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+}
@@ -0,0 +1,70 @@
+package utils;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希环
+ *
+ * 每个节点在环上放若干虚拟节点，键顺时针找到的第一个虚拟节点即所属节点。
+ * 增加或减少一个节点时只有约1/N的键改变归属，其余键的归属不变
+ */
+public class ConsistentHashRing {
+
+	private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+	private final List<String> nodes;
+
+	/**
+	 * @param nodes
+	 *            节点
+	 * @param replicas
+	 *            每个节点的虚拟节点数，越多分布越均匀
+	 */
+	public ConsistentHashRing(Collection<String> nodes, int replicas) {
+		this.nodes = Collections.unmodifiableList(new ArrayList<String>(nodes));
+		for (String node : nodes) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+
+	/**
+	 * 键所属的节点，没有节点时返回null
+	 */
+	public String node(String key) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> e = ring.ceilingEntry(hash(key));
+		return e != null ? e.getValue() : ring.firstEntry().getValue();
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * MD5的前8个字节，分布均匀且与JVM无关，各节点对同一个键算出相同的位置
+	 */
+	private static long hash(String key) {
+		MessageDigest md5 = DigestUtil.md5();
+		byte[] digest;
+		try {
+			digest = md5.digest(key.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		long h = 0;
+		for (int i = 0; i < 8; i++) {
+			h = (h << 8) | (digest[i] & 0xff);
+		}
+		return h;
+	}
+}
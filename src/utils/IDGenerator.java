@@ -1,72 +1,79 @@
 package utils;
 
 import java.net.InetAddress;
+import java.security.SecureRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 32位十六进制主键生成器（obj_id列为36位，长度兼容）
+ *
+ * 前16位为 毫秒时间(44位) + 毫秒内序号(20位)，后16位为 本机IP(32位) + 进程随机数(32位)。
+ * 时间在前，按字符串排序即按生成时间排序，主键索引的插入集中在尾部。
+ * 时间和序号放在同一个AtomicLong中以CAS递增，不加锁，且严格递增：
+ * 同一毫秒内序号用完或系统时间回拨时，继续在上一个值上递增
+ */
 public class IDGenerator {
 	public static AtomicInteger unionID = new AtomicInteger(0);
-	
-	public static String UUIDgenerate() {//产生一个32位的UUID
-		return new StringBuilder(32).append(format(getIP())).append(format(getJVM())).append(format(getHiTime())).append(format(getLoTime())).append(format(getCount())).toString();
-	}
 
-	private static final int IP;
-	static {
-		int ipadd;
-		try {
-			ipadd = toInt(InetAddress.getLocalHost().getAddress());
-		} catch (Exception e) {
-			ipadd = 0;
-		}
-		IP = ipadd;
-	}
+	private static final int SEQUENCE_BITS = 20;
 
-	private static short counter = (short) 0;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-	private static final int JVM = (int) (System.currentTimeMillis() >>> 8);
+	private static final AtomicLong STATE = new AtomicLong();
 
-	private final static String format(int intval) {
-		String formatted = Integer.toHexString(intval);
-		StringBuilder buf = new StringBuilder("00000000");
-		buf.replace(8 - formatted.length(), 8, formatted);
-		return buf.toString();
-	}
+	private static final long NODE;
 
-	private final static String format(short shortval) {
-		String formatted = Integer.toHexString(shortval);
-		StringBuilder buf = new StringBuilder("0000");
-		buf.replace(4 - formatted.length(), 4, formatted);
-		return buf.toString();
-	}
+	/**
+	 * 每个线程一个字符数组，编码时不产生中间字符串
+	 */
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[32];
+		}
+	};
 
-	private final static int getJVM() {
-		return JVM;
+	static {
+		int ip;
+		try {
+			ip = toInt(InetAddress.getLocalHost().getAddress());
+		} catch (Exception e) {
+			ip = 0;
+		}
+		// 同一台机器上的多个进程以随机数区分
+		NODE = ((long) ip << 32) | (new SecureRandom().nextInt() & 0xFFFFFFFFL);
 	}
 
-	private final static short getCount() {
-		synchronized (IDGenerator.class) {
-			if (counter < 0)
-				counter = 0;
-			return counter++;
-		}
+	public static String UUIDgenerate() {//产生一个32位的ID
+		char[] buf = BUFFER.get();
+		hex(nextState(), buf, 0);
+		hex(NODE, buf, 16);
+		return new String(buf);
 	}
 
 	/**
-	 * Unique in a local network
+	 * 取下一个 时间+序号，不小于当前时间且大于上一个值
 	 */
-	private final static int getIP() {
-		return IP;
+	private static long nextState() {
+		long now = System.currentTimeMillis() << SEQUENCE_BITS;
+		while (true) {
+			long prev = STATE.get();
+			long next = Math.max(prev + 1, now);
+			if (STATE.compareAndSet(prev, next)) {
+				return next;
+			}
+		}
 	}
 
 	/**
-	 * Unique down to millisecond
+	 * 将64位数按16位十六进制写入buf的offset处，不足补0
 	 */
-	private final static short getHiTime() {
-		return (short) (System.currentTimeMillis() >>> 32);
-	}
-
-	private final static int getLoTime() {
-		return (int) System.currentTimeMillis();
+	private static void hex(long value, char[] buf, int offset) {
+		for (int i = offset + 15; i >= offset; i--) {
+			buf[i] = HEX[(int) (value & 0xF)];
+			value >>>= 4;
+		}
 	}
 
 	private final static int toInt(byte[] bytes) {
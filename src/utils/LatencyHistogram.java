@@ -0,0 +1,108 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁延迟直方图
+ *
+ * 以微秒计，第i个桶记录 [2^(i-1), 2^i) 微秒的样本（第0个桶为不足1微秒），记录只做原子加，不加锁。
+ * 分位数按桶上界估算，误差在2倍以内
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();// 微秒
+	private final AtomicLong max = new AtomicLong();// 微秒
+
+	/**
+	 * 记录一次耗时
+	 *
+	 * @param nanos
+	 *            纳秒
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long m;
+		while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+			// 其他线程同时更新了最大值，重试
+		}
+	}
+
+	/**
+	 * 从start（System.nanoTime）到现在的耗时
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * 平均耗时（微秒）
+	 */
+	public long getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : sum.get() / c;
+	}
+
+	/**
+	 * 最大耗时（微秒）
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * 分位数耗时（微秒），取所在桶的上界
+	 *
+	 * @param quantile
+	 *            0到1之间，如0.99
+	 */
+	public long getPercentile(double quantile) {
+		long[] snapshot = getBuckets();
+		long total = 0;
+		for (long n : snapshot) {
+			total += n;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * 各桶样本数的副本
+	 */
+	public long[] getBuckets() {
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * 第i个桶的上界（微秒，不含）
+	 */
+	public static long upperBound(int i) {
+		return 1L << i;
+	}
+}
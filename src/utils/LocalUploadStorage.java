@@ -0,0 +1,129 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * 本地目录存储
+ *
+ * 暂存目录就是存储目录，分片落盘的位置即最终位置，保存分片不再复制；合成使用upload.merge.strategy配置的合并方式，
+ * 复制优先使用硬链接。localFile返回实际文件，下载时可由容器sendfile发送
+ */
+public class LocalUploadStorage implements UploadStorageI {
+
+	private final File dir;
+
+	public LocalUploadStorage(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * 分片文件：<分片序号>_<上传ID>
+	 */
+	public static File chunkFile(File dir, String upload, int chunk) {
+		return UploadLayout.file(dir, chunk + "_" + upload);
+	}
+
+	/**
+	 * 文件在存储目录中的位置，见UploadLayout
+	 */
+	public static File file(File dir, String name) {
+		return UploadLayout.file(dir, name);
+	}
+
+	@Override
+	public void putChunk(String upload, String name, int chunk, int chunks, File staged) throws IOException {
+		move(staged, chunkFile(dir, upload, chunk));
+	}
+
+	@Override
+	public void put(String name, File staged) throws IOException {
+		move(staged, file(dir, name));
+	}
+
+	@Override
+	public long compose(String upload, String name, int chunks, MergeProgress progress, MessageDigest digest)
+			throws IOException {
+		List<File> parts = new ArrayList<File>();
+		for (int i = 1; i <= chunks; i++) {
+			parts.add(chunkFile(dir, upload, i));
+		}
+		return ChunkMerger.merge(UploadLayout.mkdirs(file(dir, name)), parts, progress, digest).getBytes();
+	}
+
+	@Override
+	public InputStream open(String name, long offset, long length) throws IOException {
+		FileChannel channel = FileChannel.open(file(dir, name).toPath(), StandardOpenOption.READ);
+		channel.position(offset);
+		return new BoundedInputStream(Channels.newInputStream(channel), length);
+	}
+
+	@Override
+	public StoredObject stat(String name) {
+		File file = file(dir, name);
+		if (!file.isFile()) {
+			return null;
+		}
+		return new StoredObject(file.length(), file.lastModified());
+	}
+
+	/**
+	 * 以硬链接方式复制，文件系统不支持硬链接时退化为本地复制
+	 */
+	@Override
+	public void copy(String source, String target) throws IOException {
+		Path from = file(dir, source).toPath();
+		Path to = UploadLayout.mkdirs(file(dir, target)).toPath();
+		if (from.equals(to)) {
+			return;
+		}
+		Files.deleteIfExists(to);
+		try {
+			Files.createLink(to, from);
+		} catch (IOException e) {
+			Files.copy(from, to);
+		} catch (UnsupportedOperationException e) {
+			Files.copy(from, to);
+		}
+	}
+
+	@Override
+	public void delete(String name) throws IOException {
+		Files.deleteIfExists(file(dir, name).toPath());
+	}
+
+	/**
+	 * 删除直接写入模式的未完成文件和分片文件模式的分片，按分片数逐个删除，不列目录
+	 */
+	@Override
+	public void abort(String upload, int chunks) throws IOException {
+		PositionalChunkWriter.delete(PositionalChunkWriter.partialFile(dir, upload));
+		for (int i = 1; i <= chunks; i++) {
+			PositionalChunkWriter.delete(chunkFile(dir, upload, i));
+		}
+	}
+
+	@Override
+	public File localFile(String name) {
+		return file(dir, name);
+	}
+
+	private static void move(File staged, File target) throws IOException {
+		if (!staged.equals(target)) {
+			UploadLayout.mkdirs(target);
+			Files.move(staged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
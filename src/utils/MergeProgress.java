@@ -0,0 +1,64 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件合并进度，合并线程写入，状态查询线程读取
+ */
+public class MergeProgress {
+
+	public static final String QUEUED = "queued";// 排队中
+	public static final String MERGING = "merging";// 合并中
+	public static final String DONE = "done";// 合并完成
+	public static final String FAILED = "failed";// 合并失败
+
+	private volatile String state = QUEUED;
+	private volatile long total = -1;
+	private final AtomicLong merged = new AtomicLong();
+	private volatile long finishedAt;
+
+	public String getState() {
+		return state;
+	}
+
+	public void start(long total) {
+		this.total = total;
+		this.state = MERGING;
+	}
+
+	public void add(long bytes) {
+		merged.addAndGet(bytes);
+	}
+
+	public void finish(boolean success) {
+		this.state = success ? DONE : FAILED;
+		this.finishedAt = System.currentTimeMillis();
+	}
+
+	public boolean isFinished() {
+		return finishedAt > 0;
+	}
+
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+	public long getMerged() {
+		return merged.get();
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * 合并进度，0到1之间
+	 */
+	public double getPercent() {
+		if (DONE.equals(state)) {
+			return 1;
+		}
+		long t = total;
+		return t <= 0 ? 0 : Math.min(1, (double) merged.get() / t);
+	}
+}
@@ -0,0 +1,23 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * 分片合并策略，由upload.merge.strategy选择
+ */
+public interface MergeStrategyI {
+
+	/**
+	 * 按顺序将分片写入目标文件，返回前数据须已落盘。不删除分片
+	 *
+	 * @param progress
+	 *            合并进度，可以为null，已由调用方start
+	 * @param digest
+	 *            整个文件的摘要，可以为null，须按分片顺序更新
+	 * @return 写入的字节数
+	 */
+	public long merge(File target, List<File> parts, MergeProgress progress, MessageDigest digest) throws IOException;
+}
@@ -0,0 +1,128 @@
+package utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 内存映射并行合并：目标文件预先设好长度，按分片计算各自的偏移量，
+ * 分片按窗口映射后由ForkJoinPool并行拷贝到目标文件的映射区域。适用于SSD/NVMe等随机写入快的存储
+ */
+public class MmapMergeStrategy implements MergeStrategyI {
+
+	private static final long WINDOW = 64 * 1024 * 1024L;// 单次映射的最大长度
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(
+			ConfigUtil.getInt("upload.merge.mmap_parallelism", Runtime.getRuntime().availableProcessors()));
+
+	@Override
+	public long merge(File target, List<File> parts, MergeProgress progress, MessageDigest digest) throws IOException {
+		// 按窗口切分，每段对应目标文件中的一个区域
+		List<Segment> segments = new ArrayList<Segment>();
+		long total = 0;
+		for (File part : parts) {
+			long size = part.length();
+			for (long offset = 0; offset < size; offset += WINDOW) {
+				segments.add(new Segment(part, offset, total + offset, Math.min(WINDOW, size - offset)));
+			}
+			total += size;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+			raf.setLength(total);
+			FileChannel out = raf.getChannel();
+			try {
+				POOL.invoke(new CopyTask(out, segments, 0, segments.size(), progress));
+			} catch (RuntimeException e) {
+				for (Throwable t = e; t != null; t = t.getCause()) {
+					if (t instanceof IOException) {
+						throw (IOException) t;
+					}
+				}
+				throw e;
+			}
+			out.force(true);
+		}
+		if (digest != null) {
+			// 摘要须按顺序计算，分片刚被读过，仍在页缓存中
+			for (File part : parts) {
+				try (FileChannel in = new FileInputStream(part).getChannel()) {
+					ChunkMerger.digest(in, in.size(), digest);
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 分片中的一段及其在目标文件中的位置
+	 */
+	private static class Segment {
+		final File part;
+		final long sourceOffset;
+		final long targetOffset;
+		final long length;
+
+		Segment(File part, long sourceOffset, long targetOffset, long length) {
+			this.part = part;
+			this.sourceOffset = sourceOffset;
+			this.targetOffset = targetOffset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * 二分拆分段列表，单个段直接拷贝
+	 */
+	private static class CopyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel out;
+		private final List<Segment> segments;
+		private final int from;
+		private final int to;
+		private final MergeProgress progress;
+
+		CopyTask(FileChannel out, List<Segment> segments, int from, int to, MergeProgress progress) {
+			this.out = out;
+			this.segments = segments;
+			this.from = from;
+			this.to = to;
+			this.progress = progress;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				try {
+					copy(segments.get(from));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			} else if (to > from) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new CopyTask(out, segments, from, mid, progress), new CopyTask(out, segments, mid, to, progress));
+			}
+		}
+
+		private void copy(Segment segment) throws IOException {
+			try (FileChannel in = new FileInputStream(segment.part).getChannel()) {
+				MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, segment.sourceOffset, segment.length);
+				MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, segment.targetOffset, segment.length);
+				dst.put(src);
+				dst.force();
+			}
+			if (progress != null) {
+				progress.add(segment.length);
+			}
+		}
+	}
+}
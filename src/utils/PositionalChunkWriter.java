@@ -0,0 +1,223 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 分片直接写入工具类
+ *
+ * 第一个分片到达时按 chunks * chunkSize 预分配 &lt;name&gt;.partial，
+ * 之后每个分片按偏移量直接写入该文件，最后一片写完后截断到实际长度并原子重命名，
+ * 不再产生分片文件，也不需要在最后一次请求中重新读写整个文件
+ */
+public class PositionalChunkWriter {
+
+	public static final String PARTIAL_SUFFIX = ".partial";
+
+	private static final Object PREALLOCATE_LOCK = new Object();
+
+	private PositionalChunkWriter() {
+	}
+
+	/**
+	 * 获取未完成文件，位置见UploadLayout
+	 */
+	public static File partialFile(File dir, String name) {
+		return UploadLayout.file(dir, name + PARTIAL_SUFFIX);
+	}
+
+	/**
+	 * 将分片内容写入未完成文件的指定偏移量，读到流结束为止
+	 *
+	 * @param partial
+	 *            未完成文件，不存在时创建并预分配
+	 * @param in
+	 *            分片内容
+	 * @param offset
+	 *            写入位置
+	 * @param preallocate
+	 *            预分配大小
+	 * @return 实际写入的字节数
+	 * @throws IOException
+	 */
+	public static long write(File partial, InputStream in, long offset, long preallocate) throws IOException {
+		preallocate(partial, preallocate);
+		try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+			FileChannel out = raf.getChannel();
+			ReadableByteChannel src = Channels.newChannel(in);
+			long written = 0;
+			while (true) {
+				long n = out.transferFrom(src, offset + written, Long.MAX_VALUE - offset - written);
+				if (n <= 0) {
+					break;
+				}
+				written += n;
+			}
+			return written;
+		}
+	}
+
+	/**
+	 * 同write(File, InputStream, long, long)，经由池化的直接缓冲区写盘，不产生临时对象
+	 *
+	 * @param buffer
+	 *            写入用的缓冲区，由调用方申请和归还
+	 */
+	public static long write(File partial, InputStream in, long offset, long preallocate, ByteBuffer buffer)
+			throws IOException {
+		preallocate(partial, preallocate);
+		try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+			return copy(in, raf.getChannel(), offset, buffer);
+		}
+	}
+
+	/**
+	 * 未完成文件不存在时新建，短于预分配大小时扩展，新建和扩展的部分计入临时文件占用。
+	 * 同一上传的分片并发到达，扩展在锁内重新检查长度，不会重复计入
+	 */
+	public static void preallocate(File partial, long size) throws IOException {
+		try {
+			Files.createFile(partial.toPath());
+			UploadMetrics.tempChanged(1, 0);
+		} catch (FileAlreadyExistsException e) {
+			// 已由之前的分片创建
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+			if (raf.length() >= size) {
+				return;
+			}
+			synchronized (PREALLOCATE_LOCK) {
+				long length = raf.length();
+				if (length < size) {
+					raf.setLength(size);
+					UploadMetrics.tempChanged(0, size - length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 将内容写入单独的文件（分片文件模式），文件已存在时先删除再新建。
+	 * 已有的文件可能是分片仓库或秒传的硬链接，原地截断重写会改掉共用同一inode的其他文件
+	 *
+	 * @param buffer
+	 *            写入用的缓冲区，由调用方申请和归还
+	 * @param chunk
+	 *            是否为分片文件，分片文件计入临时文件占用；不分片上传写的是目标文件
+	 * @return 写入的字节数
+	 */
+	public static long writeFile(File file, InputStream in, ByteBuffer buffer, boolean chunk) throws IOException {
+		if (chunk) {
+			delete(file);
+		} else {
+			Files.deleteIfExists(file.toPath());
+		}
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE)) {
+			if (!chunk) {
+				return copy(in, out, 0, buffer);
+			}
+			UploadMetrics.tempChanged(1, 0);
+			try {
+				return copy(in, out, 0, buffer);
+			} finally {
+				// 写入失败时已写入的部分仍在文件中，删除时一并扣减
+				UploadMetrics.tempChanged(0, out.size());
+			}
+		}
+	}
+
+	/**
+	 * 删除分片文件或未完成文件并扣减临时文件占用，不存在时忽略
+	 *
+	 * @return 是否删除
+	 */
+	public static boolean delete(File file) throws IOException {
+		long length;
+		try {
+			length = Files.size(file.toPath());
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		if (!Files.deleteIfExists(file.toPath())) {
+			return false;
+		}
+		UploadMetrics.tempChanged(-1, -length);
+		return true;
+	}
+
+	/**
+	 * 读入缓冲区，写满或读完时按位置写盘
+	 */
+	private static long copy(InputStream in, FileChannel out, long position, ByteBuffer buffer) throws IOException {
+		byte[] scratch = BufferPool.scratch();
+		long written = 0;
+		buffer.clear();
+		while (true) {
+			int n = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+			if (n > 0) {
+				buffer.put(scratch, 0, n);
+			}
+			if (n == -1 || !buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					written += out.write(buffer, position + written);
+				}
+				buffer.clear();
+				if (n == -1) {
+					return written;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 完成上传：截断到实际长度、fsync后原子重命名为目标文件
+	 *
+	 * @param partial
+	 *            未完成文件
+	 * @param target
+	 *            目标文件
+	 * @param fileLength
+	 *            文件实际长度
+	 * @throws IOException
+	 */
+	public static void complete(File partial, File target, long fileLength) throws IOException {
+		complete(partial, target, fileLength, null);
+	}
+
+	/**
+	 * 完成上传并记录进度
+	 *
+	 * @param progress
+	 *            合并进度，可以为null
+	 */
+	public static void complete(File partial, File target, long fileLength, MergeProgress progress) throws IOException {
+		if (progress != null) {
+			progress.start(fileLength);
+		}
+		long preallocated = partial.length();
+		try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+			FileChannel ch = raf.getChannel();
+			ch.truncate(fileLength);
+			ch.force(true);
+		}
+		Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		UploadMetrics.tempChanged(-1, -preallocated);
+		if (progress != null) {
+			progress.add(fileLength);
+		}
+	}
+}
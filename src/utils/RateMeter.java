@@ -0,0 +1,52 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁速率统计，按秒分槽累计，取最近若干整秒的平均值
+ *
+ * 进入新的一秒时由先到的线程清空该槽，与清空同时发生的少量计数可能丢失，只影响统计精度
+ */
+public class RateMeter {
+
+	private static final int SLOTS = 64;
+
+	private final AtomicLongArray values = new AtomicLongArray(SLOTS);
+	private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);// 每个槽当前对应的秒
+	private final AtomicLong total = new AtomicLong();
+
+	public void mark(long n) {
+		long second = System.currentTimeMillis() / 1000;
+		int slot = (int) (second % SLOTS);
+		long old = seconds.get(slot);
+		if (old != second && seconds.compareAndSet(slot, old, second)) {
+			values.set(slot, 0);
+		}
+		values.addAndGet(slot, n);
+		total.addAndGet(n);
+	}
+
+	/**
+	 * 累计总量
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * 最近window秒（不含当前这一秒）的每秒平均值
+	 */
+	public long getRate(int window) {
+		window = Math.max(1, Math.min(SLOTS - 1, window));
+		long now = System.currentTimeMillis() / 1000;
+		long sum = 0;
+		for (long second = now - window; second < now; second++) {
+			int slot = (int) (second % SLOTS);
+			if (seconds.get(slot) == second) {
+				sum += values.get(slot);
+			}
+		}
+		return sum / window;
+	}
+}
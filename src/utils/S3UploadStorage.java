@@ -0,0 +1,634 @@
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * S3兼容的对象存储（AWS S3、MinIO等），路径风格URL、V4签名，直接使用HttpURLConnection，不依赖SDK
+ *
+ * 每个上传对应一个分片上传（Multipart Upload），分片序号即part编号，合成时由对象存储在服务端拼接各part，
+ * 不需要把分片下载回来。上传ID与对象存储的uploadId的对应关系保存在对象.uploads/<上传ID>中，重启后可以继续上传。
+ * S3要求除最后一个part外每个part不小于5MB，使用时upload.chunk_size须不小于5MB。服务端合成时无法计算摘要，digest不更新
+ */
+public class S3UploadStorage implements UploadStorageI {
+
+	private static final long MIN_PART_SIZE = 5 * 1024 * 1024L;// 除最后一个part外的最小part
+	private static final long MAX_PUT_SIZE = 5 * 1024 * 1024 * 1024L;// 单次PUT及CopyObject的上限
+	private static final long COPY_PART_SIZE = 512 * 1024 * 1024L;// 超过上限的文件分段复制时每段的大小
+	private static final int MAX_PARTS = 10000;
+	private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+	private static final String SERVICE = "s3";
+	private static final String MARKER_PREFIX = ".uploads/";// 记录上传对应的uploadId
+
+	private final String endpoint;// 如http://127.0.0.1:9000
+	private final String host;// 签名用的Host，非默认端口时带端口
+	private final String bucket;
+	private final String prefix;// 对象名前缀
+	private final String region;
+	private final String accessKey;
+	private final String secretKey;
+	private final int timeout;
+	private final ConcurrentMap<String, MultipartUpload> uploads = new ConcurrentHashMap<String, MultipartUpload>();// 上传ID -> 分片上传
+	private final Object[] locks = new Object[64];
+
+	public S3UploadStorage(String endpoint, String bucket, String prefix, String region, String accessKey,
+			String secretKey, int timeout) throws IOException {
+		this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+		URL url = new URL(this.endpoint);
+		this.host = url.getPort() == -1 || url.getPort() == url.getDefaultPort() ? url.getHost()
+				: url.getHost() + ":" + url.getPort();
+		this.bucket = bucket;
+		this.prefix = prefix == null ? "" : prefix;
+		this.region = region;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+		this.timeout = timeout;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * 分片上传为一个part，上传成功后删除暂存文件。uploadId过期或已被取消时重新发起一次
+	 */
+	@Override
+	public void putChunk(String upload, String name, int chunk, int chunks, File staged) throws IOException {
+		if (chunk > MAX_PARTS) {
+			throw new IOException("分片数超过对象存储上限" + MAX_PARTS + "：" + name);
+		}
+		if (chunk < chunks && staged.length() < MIN_PART_SIZE) {
+			throw new IOException("对象存储要求分片不小于5MB，请调大upload.chunk_size：" + name);
+		}
+		for (int attempt = 0;; attempt++) {
+			MultipartUpload multipart = multipart(upload, name);
+			SortedMap<String, String> query = new TreeMap<String, String>();
+			query.put("partNumber", String.valueOf(chunk));
+			query.put("uploadId", multipart.uploadId);
+			HttpURLConnection conn = open("PUT", multipart.key, query, new TreeMap<String, String>());
+			int code = send(conn, staged);
+			if (code == HttpURLConnection.HTTP_NOT_FOUND && attempt == 0) {
+				// uploadId已失效，重新发起
+				drain(conn);
+				forget(upload, multipart);
+				continue;
+			}
+			check(conn, "上传分片");
+			drain(conn);
+			break;
+		}
+		try {
+			// 暂存的分片计入了临时文件占用
+			PositionalChunkWriter.delete(staged);
+		} catch (IOException e) {
+			System.out.println("删除暂存文件失败：" + staged.getName());
+		}
+	}
+
+	@Override
+	public void put(String name, File staged) throws IOException {
+		if (staged.length() > MAX_PUT_SIZE) {
+			throw new IOException("不分片上传的文件超过5GB，须分片上传：" + name);
+		}
+		HttpURLConnection conn = open("PUT", key(name), new TreeMap<String, String>(), new TreeMap<String, String>());
+		send(conn, staged);
+		check(conn, "上传文件");
+		drain(conn);
+		delete(staged);
+	}
+
+	@Override
+	public long compose(String upload, String name, int chunks, MergeProgress progress, MessageDigest digest)
+			throws IOException {
+		MultipartUpload multipart = find(upload);
+		if (multipart == null) {
+			throw new IOException("没有进行中的分片上传：" + name);
+		}
+		List<String> etags = new ArrayList<String>();
+		long total = listParts(multipart.key, multipart.uploadId, chunks, etags);
+		if (progress != null) {
+			progress.start(total);
+		}
+		complete(multipart.key, multipart.uploadId, etags);
+		forget(upload, multipart);
+		if (!multipart.key.equals(key(name))) {
+			// 分片上传发起后文件名有变化
+			copy(multipart.key, key(name), total);
+			deleteObject(multipart.key);
+		}
+		if (progress != null) {
+			progress.add(total);
+		}
+		return total;
+	}
+
+	@Override
+	public InputStream open(String name, long offset, long length) throws IOException {
+		if (length <= 0) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		SortedMap<String, String> headers = new TreeMap<String, String>();
+		headers.put("range", "bytes=" + offset + "-" + (offset + length - 1));
+		HttpURLConnection conn = open("GET", key(name), new TreeMap<String, String>(), headers);
+		check(conn, "读取文件");
+		InputStream in = conn.getInputStream();
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_OK && offset > 0) {
+			// 不支持Range时返回的是整个文件
+			long skipped = 0;
+			while (skipped < offset) {
+				long n = in.skip(offset - skipped);
+				if (n <= 0) {
+					break;
+				}
+				skipped += n;
+			}
+		}
+		return new BoundedInputStream(in, length);
+	}
+
+	@Override
+	public StoredObject stat(String name) throws IOException {
+		HttpURLConnection conn = open("HEAD", key(name), new TreeMap<String, String>(), new TreeMap<String, String>());
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+			conn.disconnect();
+			return null;
+		}
+		check(conn, "查询文件");
+		StoredObject object = new StoredObject(conn.getContentLengthLong(), conn.getLastModified());
+		drain(conn);
+		return object;
+	}
+
+	/**
+	 * 服务端复制，超过5GB时分段复制（UploadPartCopy）
+	 */
+	@Override
+	public void copy(String source, String target) throws IOException {
+		if (source.equals(target)) {
+			return;
+		}
+		StoredObject object = stat(source);
+		if (object == null) {
+			throw new IOException("文件不存在：" + source);
+		}
+		copy(key(source), key(target), object.getLength());
+	}
+
+	private void copy(String sourceKey, String key, long length) throws IOException {
+		String copySource = "/" + bucket + "/" + encode(sourceKey, false);
+		if (length <= MAX_PUT_SIZE) {
+			SortedMap<String, String> headers = new TreeMap<String, String>();
+			headers.put("x-amz-copy-source", copySource);
+			HttpURLConnection conn = open("PUT", key, new TreeMap<String, String>(), headers);
+			check(conn, "复制文件");
+			// 复制失败时也可能返回200，错误在响应体中
+			xml(conn);
+			return;
+		}
+		String uploadId = createUpload(key);
+		try {
+			List<String> etags = new ArrayList<String>();
+			int part = 1;
+			for (long start = 0; start < length; start += COPY_PART_SIZE, part++) {
+				long end = Math.min(length, start + COPY_PART_SIZE) - 1;
+				SortedMap<String, String> query = new TreeMap<String, String>();
+				query.put("partNumber", String.valueOf(part));
+				query.put("uploadId", uploadId);
+				SortedMap<String, String> headers = new TreeMap<String, String>();
+				headers.put("x-amz-copy-source", copySource);
+				headers.put("x-amz-copy-source-range", "bytes=" + start + "-" + end);
+				HttpURLConnection conn = open("PUT", key, query, headers);
+				check(conn, "分段复制文件");
+				etags.add(text(xml(conn).getDocumentElement(), "ETag"));
+			}
+			complete(key, uploadId, etags);
+		} catch (IOException e) {
+			abort(key, uploadId);
+			throw e;
+		}
+	}
+
+	@Override
+	public void delete(String name) throws IOException {
+		deleteObject(key(name));
+	}
+
+	@Override
+	public void abort(String upload, int chunks) throws IOException {
+		MultipartUpload multipart = find(upload);
+		if (multipart != null) {
+			abort(multipart.key, multipart.uploadId);
+			forget(upload, multipart);
+		}
+	}
+
+	@Override
+	public File localFile(String name) {
+		return null;
+	}
+
+	private String key(String name) {
+		return prefix + name;
+	}
+
+	/**
+	 * 上传对应的分片上传，没有时以文件名发起新的分片上传并记录
+	 */
+	private MultipartUpload multipart(String upload, String name) throws IOException {
+		MultipartUpload multipart = uploads.get(upload);
+		if (multipart != null) {
+			return multipart;
+		}
+		synchronized (locks[(upload.hashCode() & 0x7fffffff) % locks.length]) {
+			multipart = find(upload);
+			if (multipart == null) {
+				String key = key(name);
+				multipart = new MultipartUpload(key, createUpload(key));
+				HttpURLConnection conn = open("PUT", markerKey(upload), new TreeMap<String, String>(),
+						new TreeMap<String, String>());
+				send(conn, (multipart.key + "\n" + multipart.uploadId).getBytes("UTF-8"));
+				check(conn, "记录分片上传");
+				drain(conn);
+				uploads.put(upload, multipart);
+			}
+			return multipart;
+		}
+	}
+
+	/**
+	 * 上传对应的分片上传，先查本地记录，再读对象存储中的记录（重启后继续上传），都没有时返回null
+	 */
+	private MultipartUpload find(String upload) throws IOException {
+		MultipartUpload multipart = uploads.get(upload);
+		if (multipart != null) {
+			return multipart;
+		}
+		HttpURLConnection conn = open("GET", markerKey(upload), new TreeMap<String, String>(),
+				new TreeMap<String, String>());
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+			conn.disconnect();
+			return null;
+		}
+		check(conn, "读取分片上传记录");
+		String[] marker = new String(readAll(conn.getInputStream()), "UTF-8").split("\n");
+		multipart = new MultipartUpload(marker[0], marker[1]);
+		MultipartUpload exists = uploads.putIfAbsent(upload, multipart);
+		return exists != null ? exists : multipart;
+	}
+
+	/**
+	 * 分片上传已完成或已取消，删除记录
+	 */
+	private void forget(String upload, MultipartUpload multipart) throws IOException {
+		uploads.remove(upload, multipart);
+		deleteObject(markerKey(upload));
+	}
+
+	private String markerKey(String upload) {
+		return prefix + MARKER_PREFIX + upload;
+	}
+
+	private void deleteObject(String key) throws IOException {
+		HttpURLConnection conn = open("DELETE", key, new TreeMap<String, String>(), new TreeMap<String, String>());
+		if (conn.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+			check(conn, "删除文件");
+		}
+		drain(conn);
+	}
+
+	private String createUpload(String key) throws IOException {
+		SortedMap<String, String> query = new TreeMap<String, String>();
+		query.put("uploads", "");
+		HttpURLConnection conn = open("POST", key, query, new TreeMap<String, String>());
+		send(conn, new byte[0]);
+		check(conn, "发起分片上传");
+		return text(xml(conn).getDocumentElement(), "UploadId");
+	}
+
+	/**
+	 * 列出已上传的part，检查分片是否齐全
+	 *
+	 * @param etags
+	 *            按part编号顺序放入各part的ETag
+	 * @return 各part长度之和
+	 */
+	private long listParts(String key, String uploadId, int chunks, List<String> etags) throws IOException {
+		Map<Integer, String> parts = new TreeMap<Integer, String>();
+		long total = 0;
+		String marker = null;
+		while (true) {
+			SortedMap<String, String> query = new TreeMap<String, String>();
+			query.put("uploadId", uploadId);
+			if (marker != null) {
+				query.put("part-number-marker", marker);
+			}
+			HttpURLConnection conn = open("GET", key, query, new TreeMap<String, String>());
+			check(conn, "查询已上传分片");
+			Element root = xml(conn).getDocumentElement();
+			NodeList list = root.getElementsByTagName("Part");
+			for (int i = 0; i < list.getLength(); i++) {
+				Element part = (Element) list.item(i);
+				int number = Integer.parseInt(text(part, "PartNumber"));
+				if (number <= chunks && parts.put(number, text(part, "ETag")) == null) {
+					total += Long.parseLong(text(part, "Size"));
+				}
+			}
+			if (!"true".equals(text(root, "IsTruncated"))) {
+				break;
+			}
+			marker = text(root, "NextPartNumberMarker");
+		}
+		for (int i = 1; i <= chunks; i++) {
+			if (!parts.containsKey(i)) {
+				throw new IOException("对象存储中缺少分片" + i + "：" + key);
+			}
+		}
+		etags.addAll(parts.values());
+		return total;
+	}
+
+	private void complete(String key, String uploadId, List<String> etags) throws IOException {
+		StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+		for (int i = 0; i < etags.size(); i++) {
+			body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+					.append(etags.get(i).replace("&", "&amp;").replace("<", "&lt;")).append("</ETag></Part>");
+		}
+		body.append("</CompleteMultipartUpload>");
+		SortedMap<String, String> query = new TreeMap<String, String>();
+		query.put("uploadId", uploadId);
+		HttpURLConnection conn = open("POST", key, query, new TreeMap<String, String>());
+		conn.setRequestProperty("Content-Type", "application/xml");
+		send(conn, body.toString().getBytes("UTF-8"));
+		check(conn, "合成文件");
+		// 合成可能耗时较长，服务端先返回200，失败时错误在响应体中
+		xml(conn);
+	}
+
+	private void abort(String key, String uploadId) {
+		try {
+			SortedMap<String, String> query = new TreeMap<String, String>();
+			query.put("uploadId", uploadId);
+			HttpURLConnection conn = open("DELETE", key, query, new TreeMap<String, String>());
+			if (conn.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+				check(conn, "取消分片上传");
+			}
+			drain(conn);
+		} catch (IOException e) {
+			System.out.println("取消分片上传失败：" + key);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 创建已签名的请求
+	 *
+	 * @param key
+	 *            对象名，为null时请求bucket
+	 * @param headers
+	 *            需要签名的请求头，名称小写
+	 */
+	private HttpURLConnection open(String method, String key, SortedMap<String, String> query,
+			SortedMap<String, String> headers) throws IOException {
+		String uri = "/" + bucket + (key == null ? "" : "/" + encode(key, false));
+		String queryString = canonicalQuery(query);
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String amzDate = format.format(new Date());
+		headers.put("host", host);
+		headers.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+		headers.put("x-amz-date", amzDate);
+		String authorization = authorization(method, uri, queryString, headers, UNSIGNED_PAYLOAD, amzDate, region,
+				accessKey, secretKey);
+
+		URL url = new URL(endpoint + uri + (queryString.isEmpty() ? "" : "?" + queryString));
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(method);
+		conn.setConnectTimeout(timeout);
+		conn.setReadTimeout(timeout);
+		conn.setUseCaches(false);
+		for (Map.Entry<String, String> e : headers.entrySet()) {
+			if (!e.getKey().equals("host")) {
+				conn.setRequestProperty(e.getKey(), e.getValue());
+			}
+		}
+		conn.setRequestProperty("Authorization", authorization);
+		return conn;
+	}
+
+	/**
+	 * V4签名，返回Authorization请求头
+	 *
+	 * @param headers
+	 *            参与签名的请求头，名称小写
+	 */
+	static String authorization(String method, String uri, String query, SortedMap<String, String> headers,
+			String payloadHash, String amzDate, String region, String accessKey, String secretKey) {
+		StringBuilder canonicalHeaders = new StringBuilder();
+		StringBuilder signedHeaders = new StringBuilder();
+		for (Map.Entry<String, String> e : headers.entrySet()) {
+			canonicalHeaders.append(e.getKey()).append(':').append(e.getValue().trim()).append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(e.getKey());
+		}
+		String canonicalRequest = method + "\n" + uri + "\n" + query + "\n" + canonicalHeaders + "\n" + signedHeaders
+				+ "\n" + payloadHash;
+		String date = amzDate.substring(0, 8);
+		String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+		try {
+			String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+					+ DigestUtil.toHex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes("UTF-8")));
+			byte[] signingKey = hmac(("AWS4" + secretKey).getBytes("UTF-8"), date);
+			signingKey = hmac(signingKey, region);
+			signingKey = hmac(signingKey, SERVICE);
+			signingKey = hmac(signingKey, "aws4_request");
+			String signature = DigestUtil.toHex(hmac(signingKey, stringToSign));
+			return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+					+ ", Signature=" + signature;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException, IOException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data.getBytes("UTF-8"));
+	}
+
+	private static String canonicalQuery(SortedMap<String, String> query) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> e : query.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append('&');
+			}
+			sb.append(encode(e.getKey(), true)).append('=').append(encode(e.getValue(), true));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 按RFC 3986编码，只保留非保留字符
+	 *
+	 * @param slash
+	 *            是否编码/，对象名中的/保留
+	 */
+	static String encode(String value, boolean slash) {
+		StringBuilder sb = new StringBuilder();
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte b : bytes) {
+			char c = (char) (b & 0xff);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+					|| c == '.' || c == '~' || (c == '/' && !slash)) {
+				sb.append(c);
+			} else {
+				sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static int send(HttpURLConnection conn, File file) throws IOException {
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(file.length());
+		byte[] buffer = BufferPool.scratch();
+		try (InputStream in = new FileInputStream(file); OutputStream out = conn.getOutputStream()) {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return conn.getResponseCode();
+	}
+
+	private static void send(HttpURLConnection conn, byte[] body) throws IOException {
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(body.length);
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(body);
+		}
+	}
+
+	private static void check(HttpURLConnection conn, String action) throws IOException {
+		int code = conn.getResponseCode();
+		if (code / 100 != 2) {
+			String body = "";
+			InputStream err = conn.getErrorStream();
+			if (err != null) {
+				body = new String(readAll(err), "UTF-8");
+			}
+			conn.disconnect();
+			throw new IOException("对象存储" + action + "失败：" + code + " " + body);
+		}
+	}
+
+	/**
+	 * 读完响应体，连接可以复用
+	 */
+	private static void drain(HttpURLConnection conn) throws IOException {
+		readAll(conn.getInputStream());
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = BufferPool.scratch();
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 解析XML响应，响应为Error时抛出异常
+	 */
+	private static Document xml(HttpURLConnection conn) throws IOException {
+		byte[] body = readAll(conn.getInputStream());
+		Document doc;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setExpandEntityReferences(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			doc = builder.parse(new ByteArrayInputStream(body));
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		} catch (SAXException e) {
+			throw new IOException("对象存储响应格式错误：" + new String(body, "UTF-8"), e);
+		}
+		if ("Error".equals(doc.getDocumentElement().getNodeName())) {
+			throw new IOException("对象存储返回错误：" + new String(body, "UTF-8"));
+		}
+		return doc;
+	}
+
+	/**
+	 * 第一个同名子元素的文本，没有时返回null
+	 */
+	private static String text(Element parent, String tag) {
+		NodeList list = parent.getElementsByTagName(tag);
+		return list.getLength() == 0 ? null : list.item(0).getTextContent();
+	}
+
+	private static void delete(File staged) {
+		if (!staged.delete()) {
+			System.out.println("删除暂存文件失败：" + staged.getName());
+		}
+	}
+
+	/**
+	 * 进行中的分片上传：对象名及对象存储分配的uploadId
+	 */
+	private static class MultipartUpload {
+		final String key;
+		final String uploadId;
+
+		MultipartUpload(String key, String uploadId) {
+			this.key = key;
+			this.uploadId = uploadId;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package utils;
+
+/**
+ * 存储中的文件信息
+ */
+public class StoredObject {
+
+	private final long length;
+	private final long lastModified;
+
+	public StoredObject(long length, long lastModified) {
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * 修改时间（毫秒）
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+}
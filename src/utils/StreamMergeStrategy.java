@@ -0,0 +1,62 @@
+package utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * 流复制合并：经过池化的直接缓冲区读写，摘要在复制的同时计算。
+ * 适用于不支持transferTo零拷贝的文件系统
+ *
+ * 缓冲区池与分片接收共用，最多等待upload.buffer_pool.acquire_timeout，仍没有空闲缓冲区时改用堆内缓冲区，
+ * 合并不会因上传占满缓冲区池而一直等待
+ */
+public class StreamMergeStrategy implements MergeStrategyI {
+
+	private final long acquireTimeout = ConfigUtil.getLong("upload.buffer_pool.acquire_timeout", 1000);
+
+	@Override
+	public long merge(File target, List<File> parts, MergeProgress progress, MessageDigest digest) throws IOException {
+		ByteBuffer pooled;
+		try {
+			pooled = BufferPool.shared().acquire(acquireTimeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("等待合并缓冲区时被中断");
+		}
+		ByteBuffer buffer = pooled != null ? pooled : ByteBuffer.allocate(BufferPool.shared().getBufferSize());
+		long total = 0;
+		try (FileChannel out = new FileOutputStream(target).getChannel()) {
+			for (File part : parts) {
+				try (FileChannel in = new FileInputStream(part).getChannel()) {
+					while (in.read(buffer) != -1) {
+						buffer.flip();
+						int n = buffer.remaining();
+						if (digest != null) {
+							digest.update(buffer);
+							buffer.rewind();
+						}
+						while (buffer.hasRemaining()) {
+							out.write(buffer);
+						}
+						buffer.clear();
+						if (progress != null) {
+							progress.add(n);
+						}
+						total += n;
+					}
+				}
+			}
+			out.force(true);
+		} finally {
+			BufferPool.shared().release(pooled);
+		}
+		return total;
+	}
+}
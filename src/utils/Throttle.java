@@ -0,0 +1,74 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个上传请求的限速，同时受全局令牌桶和所属客户端的令牌桶限制，任一为null表示不限
+ */
+public class Throttle {
+
+	private final TokenBucket global;
+	private final TokenBucket client;
+
+	public Throttle(TokenBucket global, TokenBucket client) {
+		this.global = global;
+		this.client = client;
+	}
+
+	/**
+	 * 读到n个字节后调用
+	 *
+	 * @return 继续读取前需要等待的纳秒数
+	 */
+	public long reserve(long n) {
+		long wait = global != null ? global.reserve(n) : 0;
+		if (client != null) {
+			wait = Math.max(wait, client.reserve(n));
+		}
+		return wait;
+	}
+
+	/**
+	 * 包装阻塞读取的输入流，超速时在读取线程中等待
+	 */
+	public InputStream wrap(InputStream in) {
+		if (global == null && client == null) {
+			return in;
+		}
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1) {
+					pause(reserve(1));
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					pause(reserve(n));
+				}
+				return n;
+			}
+		};
+	}
+
+	private static void pause(long nanos) throws IOException {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("限速等待时被中断");
+		}
+	}
+}
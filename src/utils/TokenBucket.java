@@ -0,0 +1,44 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶限速，按字节计
+ *
+ * 以“理论到达时间”实现（GCRA）：每个字节占用固定的纳秒数，预占时把理论到达时间向后推，
+ * 超出突发额度的部分就是需要等待的时间。只有一个AtomicLong，CAS更新，不加锁
+ */
+public class TokenBucket {
+
+	private final double nanosPerByte;
+	private final long burstNanos;
+	private final AtomicLong tat = new AtomicLong(System.nanoTime());// 理论到达时间
+
+	/**
+	 * @param bytesPerSecond
+	 *            每秒字节数，须大于0
+	 * @param burstBytes
+	 *            允许不等待连续通过的字节数
+	 */
+	public TokenBucket(long bytesPerSecond, long burstBytes) {
+		this.nanosPerByte = 1000000000D / bytesPerSecond;
+		this.burstNanos = (long) (burstBytes * nanosPerByte);
+	}
+
+	/**
+	 * 预占n个字节，调用方等待返回的时间后再继续，预占不会撤销
+	 *
+	 * @return 需要等待的纳秒数，0表示无需等待
+	 */
+	public long reserve(long n) {
+		long cost = (long) (n * nanosPerByte);
+		while (true) {
+			long now = System.nanoTime();
+			long prev = tat.get();
+			long next = Math.max(prev, now) + cost;
+			if (tat.compareAndSet(prev, next)) {
+				return Math.max(0, next - now - burstNanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * 零拷贝合并：FileChannel.transferTo追加分片，数据由内核直接拷贝，不经过Java堆
+ */
+public class TransferToMergeStrategy implements MergeStrategyI {
+
+	@Override
+	public long merge(File target, List<File> parts, MergeProgress progress, MessageDigest digest) throws IOException {
+		long total = 0;
+		try (FileChannel out = new FileOutputStream(target).getChannel()) {
+			for (File part : parts) {
+				total += append(part, out, progress, digest);
+			}
+			out.force(true);
+		}
+		return total;
+	}
+
+	/**
+	 * 将单个分片追加到输出通道，transferTo单次可能只传输部分数据，需循环直到传完。
+	 * 需要摘要时先映射分片计算，紧接着的transferTo读的是同一批页缓存
+	 */
+	private static long append(File part, FileChannel out, MergeProgress progress, MessageDigest digest)
+			throws IOException {
+		try (FileChannel in = new FileInputStream(part).getChannel()) {
+			long size = in.size();
+			if (digest != null) {
+				ChunkMerger.digest(in, size, digest);
+			}
+			long position = 0;
+			while (position < size) {
+				long n = in.transferTo(position, size - position, out);
+				position += n;
+				if (progress != null) {
+					progress.add(n);
+				}
+			}
+			return size;
+		}
+	}
+}
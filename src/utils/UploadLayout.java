@@ -0,0 +1,72 @@
+package utils;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 上传目录的分层布局
+ *
+ * 文件按键的MD5前两个字节分两级十六进制子目录存放：&lt;根目录&gt;/ab/cd/&lt;文件名&gt;，最多65536个子目录，
+ * 文件数增长时每个目录中的文件仍然很少，查找和创建的耗时不随之增长。分片文件和未完成文件的键为上传ID，
+ * 同一上传的文件在同一目录下；其他文件的键为文件名本身。
+ * 用MD5而不是键本身的前缀，IDGenerator生成的上传ID开头是时间，直接取前缀会集中在少数目录
+ */
+public class UploadLayout {
+
+	private static final Pattern CHUNK_FILE = Pattern.compile("\\d+_([0-9A-Za-z]{1,36})");// 序号_上传ID
+	private static final Pattern PARTIAL_FILE = Pattern
+			.compile("([0-9A-Za-z]{1,36})" + Pattern.quote(PositionalChunkWriter.PARTIAL_SUFFIX));
+	private static final Pattern SHARD = Pattern.compile("[0-9a-f]{2}");
+
+	private UploadLayout() {
+	}
+
+	/**
+	 * 文件在目录中的位置，不创建子目录
+	 */
+	public static File file(File root, String fileName) {
+		byte[] hash;
+		try {
+			hash = DigestUtil.md5().digest(keyOf(fileName).getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		File dir = new File(new File(root, DigestUtil.toHex(new byte[] { hash[0] })),
+				DigestUtil.toHex(new byte[] { hash[1] }));
+		return new File(dir, fileName);
+	}
+
+	/**
+	 * 文件所在的子目录不存在时创建，写入文件前调用
+	 *
+	 * @return 参数file
+	 */
+	public static File mkdirs(File file) {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			System.out.println("创建目录失败：" + dir);
+		}
+		return file;
+	}
+
+	/**
+	 * 决定所在子目录的键：分片文件、未完成文件为上传ID，其他文件为文件名
+	 */
+	static String keyOf(String fileName) {
+		Matcher m = CHUNK_FILE.matcher(fileName);
+		if (m.matches()) {
+			return m.group(1);
+		}
+		m = PARTIAL_FILE.matcher(fileName);
+		return m.matches() ? m.group(1) : fileName;
+	}
+
+	/**
+	 * 是否为分层子目录名
+	 */
+	public static boolean isShard(String dirName) {
+		return SHARD.matcher(dirName).matches();
+	}
+}
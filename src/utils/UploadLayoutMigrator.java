@@ -0,0 +1,73 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 将平铺在上传目录（及分片仓库.chunks）中的文件移到UploadLayout的分层子目录
+ *
+ * 升级时停服执行一次，同一文件系统内只是改名，不复制内容。已在子目录中的文件不处理，中断后可以重复执行；
+ * 目标位置已有同名文件时保留原文件并输出提示，由人工处理。
+ *
+ * 运行：java utils.UploadLayoutMigrator 上传目录，如 UploadLayoutMigrator /data/webapps/upload/datas/uploader
+ */
+public class UploadLayoutMigrator {
+
+	private UploadLayoutMigrator() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("用法：java utils.UploadLayoutMigrator 上传目录");
+			return;
+		}
+		File root = new File(args[0]);
+		if (!root.isDirectory()) {
+			System.out.println("目录不存在：" + root);
+			return;
+		}
+		long moved = migrate(root);
+		File store = new File(root, ".chunks");
+		if (store.isDirectory()) {
+			moved += migrate(store);
+		}
+		System.out.println("迁移完成，共移动" + moved + "个文件");
+	}
+
+	/**
+	 * 逐个读取目录项，只移动目录下直接存放的文件
+	 *
+	 * @return 移动的文件数
+	 */
+	static long migrate(File root) throws IOException {
+		long moved = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.toPath())) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				// 子目录及分片仓库写入中的临时文件
+				if (!Files.isRegularFile(path) || name.endsWith(".tmp")) {
+					continue;
+				}
+				Path target = UploadLayout.mkdirs(UploadLayout.file(root, name)).toPath();
+				if (Files.exists(target)) {
+					System.out.println("目标位置已有同名文件，未移动：" + path);
+					continue;
+				}
+				try {
+					Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(path, target);
+				}
+				if (++moved % 10000 == 0) {
+					System.out.println("已移动" + moved + "个文件：" + root);
+				}
+			}
+		}
+		return moved;
+	}
+}
@@ -0,0 +1,69 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传链路指标，各处直接调用静态记录器，记录只做原子操作
+ *
+ * 由/metrics以纯文本输出，并注册为JMX MBean（upload:type=UploadMetrics）
+ */
+public class UploadMetrics {
+
+	/** 分片接收：从请求开始到分片内容开始写盘（multipart解析、参数读取、申请名额和缓冲区） */
+	public static final LatencyHistogram CHUNK_PARSE = new LatencyHistogram();
+	/** 分片接收：分片内容写盘 */
+	public static final LatencyHistogram CHUNK_WRITE = new LatencyHistogram();
+	/** 分片接收：更新上传状态（会话缓存，检查点时写库） */
+	public static final LatencyHistogram CHUNK_STATUS = new LatencyHistogram();
+	/** 断点查询(/ckeckFileServlet) */
+	public static final LatencyHistogram STATUS_LOOKUP = new LatencyHistogram();
+	/** 上传状态查库（按上传ID或文件名） */
+	public static final LatencyHistogram DB_GET = new LatencyHistogram();
+	/** 上传进度批量写库 */
+	public static final LatencyHistogram DB_FLUSH = new LatencyHistogram();
+	/** 文件合并 */
+	public static final LatencyHistogram MERGE = new LatencyHistogram();
+
+	/** 接收的分片字节数 */
+	public static final RateMeter INGEST = new RateMeter();
+	/** 合并的字节数 */
+	public static final RateMeter MERGED = new RateMeter();
+
+	/** 接收完成的分片数 */
+	public static final AtomicLong CHUNKS = new AtomicLong();
+	/** 接收失败或被拒绝（校验失败、繁忙）的分片数 */
+	public static final AtomicLong CHUNKS_REJECTED = new AtomicLong();
+	/** 准入控制拒绝（429）的请求数 */
+	public static final AtomicLong ADMISSION_REJECTED = new AtomicLong();
+	/** 集群部署时重定向到所属节点的请求数 */
+	public static final AtomicLong ROUTED = new AtomicLong();
+	/** 过期被清理的上传数 */
+	public static final AtomicLong REAPED_UPLOADS = new AtomicLong();
+	/** 扫描上传目录删除的过期文件数 */
+	public static final AtomicLong REAPED_FILES = new AtomicLong();
+	/** 正在接收的分片数 */
+	public static final AtomicInteger ACTIVE_CHUNKS = new AtomicInteger();
+	/** 上传目录中分片文件和未完成文件的字节数，写入、合并、清理时增减，启动时由UploadReaper统计已有文件 */
+	public static final AtomicLong TEMP_BYTES = new AtomicLong();
+	/** 上传目录中分片文件和未完成文件的个数 */
+	public static final AtomicLong TEMP_FILES = new AtomicLong();
+	/** 分片仓库占用的字节数，存入、回收时增减 */
+	public static final AtomicLong CHUNK_STORE_BYTES = new AtomicLong();
+
+	private UploadMetrics() {
+	}
+
+	/**
+	 * 分片文件或未完成文件的占用变化
+	 *
+	 * @param files
+	 *            文件数变化，新建为1，删除为-1
+	 * @param bytes
+	 *            字节数变化
+	 */
+	public static void tempChanged(long files, long bytes) {
+		TEMP_FILES.addAndGet(files);
+		TEMP_BYTES.addAndGet(bytes);
+	}
+}
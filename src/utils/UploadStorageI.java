@@ -0,0 +1,82 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * 上传文件的存储，由upload.storage.type选择：local=本地目录，s3=S3兼容的对象存储
+ *
+ * 分片先写入本地暂存目录并通过校验，再交给存储；全部分片收齐后由存储按序合成最终文件。
+ * 分片按上传ID保存，同名文件可以同时上传，合成时才写到文件名
+ */
+public interface UploadStorageI {
+
+	/**
+	 * 保存一个已在本地落盘的分片，暂存文件由存储接管：本地存储移到最终位置，对象存储上传后删除
+	 *
+	 * @param upload
+	 *            上传ID
+	 * @param name
+	 *            合成后的文件名
+	 * @param staged
+	 *            暂存的分片文件
+	 */
+	public void putChunk(String upload, String name, int chunk, int chunks, File staged) throws IOException;
+
+	/**
+	 * 保存一个不分片上传的完整文件，暂存文件同样由存储接管
+	 */
+	public void put(String name, File staged) throws IOException;
+
+	/**
+	 * 按分片序号将上传的分片合成为文件name，成功后分片不再保留
+	 *
+	 * @param progress
+	 *            合并进度，可以为null
+	 * @param digest
+	 *            整个文件的摘要，可以为null；不能在合成时计算摘要的存储不更新摘要
+	 * @return 文件长度
+	 */
+	public long compose(String upload, String name, int chunks, MergeProgress progress, MessageDigest digest)
+			throws IOException;
+
+	/**
+	 * 读取文件的一段
+	 *
+	 * @param offset
+	 *            起始位置
+	 * @param length
+	 *            长度
+	 */
+	public InputStream open(String name, long offset, long length) throws IOException;
+
+	/**
+	 * 文件长度及修改时间，文件不存在时返回null
+	 */
+	public StoredObject stat(String name) throws IOException;
+
+	/**
+	 * 复制文件，目标已存在时覆盖
+	 */
+	public void copy(String source, String target) throws IOException;
+
+	/**
+	 * 删除文件，不存在时忽略
+	 */
+	public void delete(String name) throws IOException;
+
+	/**
+	 * 放弃上传，删除尚未合成的分片，不存在时忽略
+	 *
+	 * @param chunks
+	 *            分片数
+	 */
+	public void abort(String upload, int chunks) throws IOException;
+
+	/**
+	 * 文件在本地文件系统中的位置，供零拷贝发送、硬链接等只能用于本地文件的优化使用；非本地存储返回null
+	 */
+	public File localFile(String name);
+}